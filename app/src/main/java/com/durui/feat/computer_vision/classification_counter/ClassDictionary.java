@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The classes of a classifier, numbered densely from 0, so per-class values can live in arrays
+ * indexed by class id and names are only needed to talk to the UI and to logs.
+ */
+public final class ClassDictionary {
+    public static final int NO_CLASS_ID = -1;
+    /**
+     * Classes of a result without any, e.g. when no pose was found.
+     */
+    public static final ClassDictionary EMPTY = new ClassDictionary(new String[0]);
+
+    private final String[] classNames;
+    private final Map<String, Integer> classIds;
+
+    /**
+     * Numbers {@code classNames} in order. The array is taken over, not copied.
+     */
+    public ClassDictionary(String[] classNames) {
+        this.classNames = classNames;
+        classIds = new HashMap<>(classNames.length * 2);
+        for (int classId = 0; classId < classNames.length; classId++) {
+            if (classIds.put(classNames[classId], classId) != null) {
+                throw new IllegalArgumentException("Duplicate class " + classNames[classId]);
+            }
+        }
+    }
+
+    public int size() {
+        return classNames.length;
+    }
+
+    public String getClassName(int classId) {
+        return classNames[classId];
+    }
+
+    /**
+     * Returns the id of {@code className}, or {@link #NO_CLASS_ID} if it isn't one of these classes.
+     */
+    public int getClassId(String className) {
+        Integer classId = classIds.get(className);
+        return classId == null ? NO_CLASS_ID : classId;
+    }
+}
@@ -16,46 +16,137 @@
 
 package com.durui.feat.computer_vision.classification_counter;
 
-import static java.util.Collections.max;
+import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
  * Represents Pose classification result as outputted by {@link PoseClassifier}. Can be manipulated.
+ *
+ * <p>Confidences are kept in a {@code float[]} indexed by the ids of a {@link ClassDictionary}, the
+ * one of the classifier that produced the result. Everything per frame goes by class id; the name
+ * based methods are a view for the UI, logging and code counting a class by name.
  */
 public class ClassificationResult {
-    // For an entry in this map, the key is the class name, and the value is how many times this class
-    // appears in the top K nearest neighbors. The value is in range [0, K] and could be a float after
-    // EMA smoothing. We use this number to represent the confidence of a pose being in this class.
-    private final Map<String, Float> classConfidences;
+    // For each class id, how many times this class appears in the top K nearest neighbors. The value
+    // is in range [0, K] and could be a float after EMA smoothing. We use this number to represent
+    // the confidence of a pose being in this class. A class is in the result if it is above 0.
+    private ClassDictionary classes;
+    private float[] classConfidences;
 
+    /**
+     * Creates a result without any class, e.g. for a frame without a pose.
+     */
     public ClassificationResult() {
-        classConfidences = new HashMap<>();
+        this(ClassDictionary.EMPTY);
+    }
+
+    public ClassificationResult(ClassDictionary classes) {
+        this.classes = classes;
+        classConfidences = new float[classes.size()];
+    }
+
+    /**
+     * Clears this result and makes it one over {@code classes}, so it can be reused.
+     */
+    public void reset(ClassDictionary classes) {
+        if (classConfidences.length != classes.size()) {
+            classConfidences = new float[classes.size()];
+        } else {
+            Arrays.fill(classConfidences, 0);
+        }
+        this.classes = classes;
     }
 
+    public ClassDictionary getClassDictionary() {
+        return classes;
+    }
+
+    /**
+     * Returns the names of the classes in this result, for the UI and logging.
+     */
     public Set<String> getAllClasses() {
-        return classConfidences.keySet();
+        Set<String> allClasses = new LinkedHashSet<>();
+        for (int classId = 0; classId < classConfidences.length; classId++) {
+            if (classConfidences[classId] > 0) {
+                allClasses.add(classes.getClassName(classId));
+            }
+        }
+        return allClasses;
+    }
+
+    public float getClassConfidence(int classId) {
+        return classConfidences[classId];
     }
 
     public float getClassConfidence(String className) {
-        return classConfidences.containsKey(className) ? classConfidences.get(className) : 0;
+        int classId = classes.getClassId(className);
+        return classId == ClassDictionary.NO_CLASS_ID ? 0 : classConfidences[classId];
     }
 
+    /**
+     * Returns the id of the class with the highest confidence, the lowest id on a tie, or
+     * {@link ClassDictionary#NO_CLASS_ID} if no class is in this result.
+     */
+    public int getMaxConfidenceClassId() {
+        int maxClassId = ClassDictionary.NO_CLASS_ID;
+        float maxConfidence = 0;
+        for (int classId = 0; classId < classConfidences.length; classId++) {
+            if (classConfidences[classId] > maxConfidence) {
+                maxConfidence = classConfidences[classId];
+                maxClassId = classId;
+            }
+        }
+        return maxClassId;
+    }
+
+    /**
+     * Returns the name of the class with the highest confidence, see
+     * {@link #getMaxConfidenceClassId()}, or null if no class is in this result.
+     */
+    @Nullable
     public String getMaxConfidenceClass() {
-        return max(
-                classConfidences.entrySet(),
-                (entry1, entry2) -> (int) (entry1.getValue() - entry2.getValue()))
-                .getKey();
+        int classId = getMaxConfidenceClassId();
+        return classId == ClassDictionary.NO_CLASS_ID ? null : classes.getClassName(classId);
+    }
+
+    public void incrementClassConfidence(int classId) {
+        classConfidences[classId]++;
     }
 
     public void incrementClassConfidence(String className) {
-        classConfidences.put(className,
-                classConfidences.containsKey(className) ? classConfidences.get(className) + 1 : 1);
+        incrementClassConfidence(getClassIdOrThrow(className));
+    }
+
+    public void putClassConfidence(int classId, float confidence) {
+        classConfidences[classId] = confidence;
     }
 
     public void putClassConfidence(String className, float confidence) {
-        classConfidences.put(className, confidence);
+        putClassConfidence(getClassIdOrThrow(className), confidence);
+    }
+
+    private int getClassIdOrThrow(String className) {
+        int classId = classes.getClassId(className);
+        if (classId == ClassDictionary.NO_CLASS_ID) {
+            throw new IllegalArgumentException("Unknown class " + className);
+        }
+        return classId;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("{");
+        for (int classId = 0; classId < classConfidences.length; classId++) {
+            if (classConfidences[classId] > 0) {
+                if (text.length() > 1) {
+                    text.append(", ");
+                }
+                text.append(classes.getClassName(classId)).append('=').append(classConfidences[classId]);
+            }
+        }
+        return text.append('}').toString();
     }
 }
@@ -16,29 +16,60 @@
 
 package com.durui.feat.computer_vision.classification_counter;
 
-import android.os.SystemClock;
-
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Runs EMA(Exponential Moving Average) smoothing over a window with given stream of pose classification results.
+ *
+ * <p>The window is a circular {@code float[window][classes]} buffer of confidences by class id,
+ * each result weighing the decay since its capture. Time comes from the capture timestamps of the results rather
+ * than from the clock, and {@code alpha} is the weight lost over one frame at
+ * {@link #REFERENCE_FRAME_INTERVAL_NANOS}: a result weighs {@code (1 - alpha)^(dt / interval)} of
+ * what it did {@code dt} ago. The smoothing so keeps the same response in time whether frames come
+ * at 30 or at 12 fps, where a fixed per-frame alpha would be more than twice as slow to follow a
+ * change.
+ *
+ * <p>Rather than summing the whole window again, every frame scales the weighted sums and the sum of
+ * the weights, takes the oldest result out and adds the new one, which is O(classes). With
+ * {@link #getSmoothedResult(ClassificationResult, ClassificationResult, long)} nothing is
+ * allocated.
+ *
+ * <p>Results are expected to come from one classifier. Results without classes count as a frame
+ * where no class was seen, and so do the earlier frames when results switch to other classes.
  */
 public class EMASmoothing {//durui 姿态分类结果平滑
     private static final int DEFAULT_WINDOW_SIZE = 10;
     private static final float DEFAULT_ALPHA = 0.2f;
 
-    private static final long RESET_THRESHOLD_MS = 100;
+    // Frame interval alpha is given for, 30 fps.
+    public static final long REFERENCE_FRAME_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1) / 30;
+    // Capture gap after which the window is dropped, longer than a few dropped frames at low fps.
+    private static final long RESET_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
 
     private final int windowSize;
-    private final float alpha;
-    // This is a window of {@link ClassificationResult}s as outputted by the {@link PoseClassifier}.
-    // We run smoothing over this window of size {@link windowSize}.
-    private final Deque<ClassificationResult> window;
-
-    private long lastInputMs;
+    // Weight left to a result after one reference frame interval, 1 - alpha.
+    private final double decay;
+
+    private ClassDictionary classes = ClassDictionary.EMPTY;
+    // This is a window of confidences by class id as outputted by the {@link PoseClassifier}, in
+    // slots used round robin. We run smoothing over this window of size {@link windowSize}.
+    private float[][] window;
+    // Capture timestamp of the result in each slot.
+    private final long[] slotTimestamps;
+    // Sum of the current weights of the results in the window.
+    private double weightSum;
+    // Results in the window each class was in, only those are in the smoothed result.
+    private int[] presentCount;
+    // Weighted sum of the confidences of each class over the window.
+    private double[] weightedSums;
+    private int newestSlot = -1;
+    private int size;
+
+    private long lastTimestampNanos;
+    // Decay over the last frame interval seen, frames mostly come at a steady rate.
+    private long lastIntervalNanos = -1;
+    private double lastIntervalDecay;
 
     public EMASmoothing() {
         this(DEFAULT_WINDOW_SIZE, DEFAULT_ALPHA);
@@ -46,47 +77,111 @@ public class EMASmoothing {//durui 姿态分类结果平滑
 
     public EMASmoothing(int windowSize, float alpha) {
         this.windowSize = windowSize;
-        this.alpha = alpha;
-        this.window = new LinkedBlockingDeque<>(windowSize);
+        decay = 1.0 - alpha;
+        slotTimestamps = new long[windowSize];
+        setClasses(ClassDictionary.EMPTY);
+    }
+
+    public ClassificationResult getSmoothedResult(
+            ClassificationResult classificationResult, long timestampNanos) {
+        return getSmoothedResult(classificationResult, new ClassificationResult(), timestampNanos);
     }
 
-    public ClassificationResult getSmoothedResult(ClassificationResult classificationResult) {
+    /**
+     * Smooths {@code classificationResult}, of the frame captured at {@code timestampNanos}, into
+     * {@code smoothedResult}, which is reset first, and returns it. Timestamps are expected not to
+     * go backwards.
+     */
+    public ClassificationResult getSmoothedResult(
+            ClassificationResult classificationResult,
+            ClassificationResult smoothedResult,
+            long timestampNanos) {
         // Resets memory if the input is too far away from the previous one in time.
-        long nowMs = SystemClock.elapsedRealtime();
-        if (nowMs - lastInputMs > RESET_THRESHOLD_MS) {
-            window.clear();
+        long previousTimestampNanos = lastTimestampNanos;
+        long intervalNanos = timestampNanos - previousTimestampNanos;
+        if (size > 0 && intervalNanos > RESET_THRESHOLD_NANOS) {
+            clear();
         }
-        lastInputMs = nowMs;
+        lastTimestampNanos = timestampNanos;
+        double intervalDecay = size > 0 ? getDecay(intervalNanos) : 1;
 
-        // If we are at window size, remove the last (oldest) result.
-        if (window.size() == windowSize) {
-            window.pollLast();
+        ClassDictionary inputClasses = classificationResult.getClassDictionary();
+        if (inputClasses != classes && inputClasses != ClassDictionary.EMPTY) {
+            setClasses(inputClasses);
         }
-        // Insert at the beginning of the window.
-        window.addFirst(classificationResult);
-
-        Set<String> allClasses = new HashSet<>();
-        for (ClassificationResult result : window) {
-            allClasses.addAll(result.getAllClasses());
+        boolean hasClasses = inputClasses == classes;
+        int numClasses = classes.size();
+
+        // If we are at window size, take the last (oldest) result out of the sums.
+        int slot = (newestSlot + 1) % windowSize;
+        float[] confidences = window[slot];
+        double oldestWeight = 0;
+        if (size == windowSize) {
+            // Its weight as of the previous frame, like the sums.
+            oldestWeight = decayOver(previousTimestampNanos - slotTimestamps[slot]);
+            for (int c = 0; c < numClasses; c++) {
+                weightedSums[c] -= oldestWeight * confidences[c];
+                if (confidences[c] > 0) {
+                    presentCount[c]--;
+                }
+            }
+        } else {
+            size++;
+        }
+        // Every older result loses weight for the time since the previous one, the new one weighs 1.
+        slotTimestamps[slot] = timestampNanos;
+        weightSum = 1 + intervalDecay * (weightSum - oldestWeight);
+        for (int c = 0; c < numClasses; c++) {
+            confidences[c] = hasClasses ? classificationResult.getClassConfidence(c) : 0;
+            if (confidences[c] > 0) {
+                presentCount[c]++;
+            }
+            weightedSums[c] = confidences[c] + intervalDecay * weightedSums[c];
+        }
+        newestSlot = slot;
+
+        smoothedResult.reset(classes);
+        for (int c = 0; c < numClasses; c++) {
+            if (presentCount[c] > 0) {
+                smoothedResult.putClassConfidence(c, (float) (weightedSums[c] / weightSum));
+            } else {
+                // Nothing left of the class but rounding errors.
+                weightedSums[c] = 0;
+            }
         }
 
-        ClassificationResult smoothedResult = new ClassificationResult();
+        return smoothedResult;
+    }
 
-        for (String className : allClasses) {
-            float factor = 1;
-            float topSum = 0;
-            float bottomSum = 0;
-            for (ClassificationResult result : window) {
-                float value = result.getClassConfidence(className);
+    // Weight left to a result after intervalNanos, results of the same instant keep theirs.
+    private double getDecay(long intervalNanos) {
+        if (intervalNanos <= 0) {
+            return 1;
+        }
+        if (intervalNanos != lastIntervalNanos) {
+            lastIntervalNanos = intervalNanos;
+            lastIntervalDecay = decayOver(intervalNanos);
+        }
+        return lastIntervalDecay;
+    }
 
-                topSum += factor * value;
-                bottomSum += factor;
+    private double decayOver(long nanos) {
+        return nanos <= 0 ? 1 : Math.pow(decay, (double) nanos / REFERENCE_FRAME_INTERVAL_NANOS);
+    }
 
-                factor = (float) (factor * (1.0 - alpha));
-            }
-            smoothedResult.putClassConfidence(className, topSum / bottomSum);
-        }
+    private void clear() {
+        size = 0;
+        newestSlot = -1;
+        weightSum = 0;
+        Arrays.fill(presentCount, 0);
+        Arrays.fill(weightedSums, 0);
+    }
 
-        return smoothedResult;
+    // Results already in the window stay, as results where none of the new classes was seen.
+    private void setClasses(ClassDictionary classes) {
+        this.classes = classes;
+        window = new float[windowSize][classes.size()];
+        presentCount = new int[classes.size()];
+        weightedSums = new double[classes.size()];
     }
 }
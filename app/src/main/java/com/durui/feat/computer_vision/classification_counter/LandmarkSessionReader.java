@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import static com.durui.feat.computer_vision.classification_counter.LandmarkSessionRecorder.FLAG_KEY_FRAME;
+import static com.durui.feat.computer_vision.classification_counter.LandmarkSessionRecorder.FLAG_POSE;
+import static com.durui.feat.computer_vision.classification_counter.LandmarkSessionRecorder.LIKELIHOOD_SCALE;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Replays a log written by {@link LandmarkSessionRecorder} frame by frame, e.g. into a
+ * {@link RepCountingEngine}. A log cut short, say by the app being killed, replays up to the last
+ * chunk written.
+ */
+public class LandmarkSessionReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream in;
+    private final float coordinateStep;
+
+    private long timestampNanos;
+    private boolean hasPose;
+    private final int[] coordinates = new int[PoseEmbedding.LANDMARKS_LENGTH];
+    private final int[] likelihoods = new int[PoseEmbedding.NUM_LANDMARKS];
+    private final float[] landmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+    private final float[] inFrameLikelihoods = new float[PoseEmbedding.NUM_LANDMARKS];
+
+    public LandmarkSessionReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public LandmarkSessionReader(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(new InflaterInputStream(in), BUFFER_SIZE);
+        int magic = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        if (magic != LandmarkSessionRecorder.MAGIC) {
+            throw new IOException("Not a landmark session");
+        }
+        int version = (int) readVarint();
+        if (version != LandmarkSessionRecorder.VERSION) {
+            throw new IOException("Unsupported landmark session version " + version);
+        }
+        coordinateStep = 1f / readVarint();
+    }
+
+    /**
+     * Reads the next frame, returns false at the end of the log.
+     */
+    public boolean next() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        try {
+            timestampNanos += readVarint(first);
+            int flags = readByte();
+            hasPose = (flags & FLAG_POSE) != 0;
+            if (!hasPose) {
+                return true;
+            }
+            if ((flags & FLAG_KEY_FRAME) != 0) {
+                Arrays.fill(coordinates, 0);
+                Arrays.fill(likelihoods, 0);
+            }
+            for (int i = 0; i < coordinates.length; i++) {
+                coordinates[i] += unzigzag((int) readVarint());
+                landmarks[i] = coordinates[i] * coordinateStep;
+            }
+            for (int i = 0; i < likelihoods.length; i++) {
+                likelihoods[i] += unzigzag((int) readVarint());
+                inFrameLikelihoods[i] = (float) likelihoods[i] / LIKELIHOOD_SCALE;
+            }
+            return true;
+        } catch (EOFException e) {
+            // The log ends in the middle of a frame, it was cut short.
+            hasPose = false;
+            return false;
+        }
+    }
+
+    /**
+     * Returns when the current frame was captured.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public boolean hasPose() {
+        return hasPose;
+    }
+
+    /**
+     * Returns the landmarks of the current frame packed as x, y, z triples, only valid when
+     * {@link #hasPose()} and until the next frame.
+     */
+    public float[] getLandmarks() {
+        return landmarks;
+    }
+
+    /**
+     * Returns the in-frame likelihoods of the current frame by landmark type, only valid when
+     * {@link #hasPose()} and until the next frame.
+     */
+    public float[] getInFrameLikelihoods() {
+        return inFrameLikelihoods;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int readByte() throws IOException {
+        int value = in.read();
+        if (value < 0) {
+            throw new EOFException();
+        }
+        return value;
+    }
+
+    private long readVarint() throws IOException {
+        return readVarint(readByte());
+    }
+
+    private long readVarint(int first) throws IOException {
+        long value = first & 0x7f;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Records the landmarks of a live session into a compact append-only log, which
+ * {@link LandmarkSessionReader} replays.
+ *
+ * <p>The log is a deflate stream of a header and then one record per frame:
+ * <ul>
+ *   <li>the capture timestamp, as a varint of the nanoseconds since the previous frame,
+ *   <li>a flags byte, {@link #FLAG_POSE} if a pose was found and {@link #FLAG_KEY_FRAME} if its
+ *       values are not relative to the previous frame,
+ *   <li>with a pose, the {@link PoseEmbedding#LANDMARKS_LENGTH} coordinates quantized to
+ *       {@code 1 / COORDINATE_SCALE} pixel, then the in-frame likelihoods quantized to 1/255, each
+ *       as a zigzag varint of the change since the previous frame.
+ * </ul>
+ * Landmarks move little from one frame to the next, so most values take a byte before deflate.
+ *
+ * <p>{@link #record} only encodes into one of a few fixed chunks; full chunks are deflated and
+ * written by a background thread, flushed chunk by chunk so a log cut short still replays up to
+ * its last chunk. Memory is bounded by the chunks: when the writer falls behind, frames are dropped
+ * rather than blocking the caller, and the next recorded frame is a key frame.
+ */
+public class LandmarkSessionRecorder implements Closeable {
+    private static final String TAG = "LandmarkSessionRecorder";
+
+    public static final String FILE_SUFFIX = ".lmk";
+
+    static final int MAGIC = 0x464c4d4b; // "FLMK"
+    static final int VERSION = 1;
+    // Coordinates are recorded in steps of a quarter pixel.
+    static final int COORDINATE_SCALE = 4;
+    static final int LIKELIHOOD_SCALE = 255;
+    static final int FLAG_POSE = 1;
+    static final int FLAG_KEY_FRAME = 1 << 1;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int NUM_CHUNKS = 4;
+    // Varints take at most 10 bytes for a long, 5 for an int.
+    private static final int MAX_FRAME_BYTES =
+            10 + 1 + 5 * (PoseEmbedding.LANDMARKS_LENGTH + PoseEmbedding.NUM_LANDMARKS);
+
+    private static final class Chunk {
+        final byte[] data;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+        }
+    }
+
+    // Tells the writer there is nothing more to write.
+    private static final Chunk END = new Chunk(0);
+
+    private final BlockingQueue<Chunk> freeChunks = new ArrayBlockingQueue<>(NUM_CHUNKS);
+    private final BlockingQueue<Chunk> fullChunks = new ArrayBlockingQueue<>(NUM_CHUNKS + 1);
+    private final Thread writer;
+
+    // Encoder state, guarded by this.
+    @Nullable
+    private Chunk chunk;
+    private long lastTimestampNanos;
+    private boolean lastHasPose;
+    private final int[] lastCoordinates = new int[PoseEmbedding.LANDMARKS_LENGTH];
+    private final int[] lastLikelihoods = new int[PoseEmbedding.NUM_LANDMARKS];
+    private final float[] likelihoodsBuffer = new float[PoseEmbedding.NUM_LANDMARKS];
+    private long recordedFrames;
+    private long droppedFrames;
+    private boolean closed;
+    private volatile boolean failed;
+
+    /**
+     * Creates {@code file}, replacing any previous one, and starts its writer thread.
+     */
+    public LandmarkSessionRecorder(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public LandmarkSessionRecorder(OutputStream out) {
+        for (int i = 0; i < NUM_CHUNKS; i++) {
+            freeChunks.add(new Chunk(CHUNK_SIZE));
+        }
+        chunk = freeChunks.poll();
+        chunk.length = writeInt(chunk.data, 0, MAGIC);
+        chunk.length = writeVarint(chunk.data, chunk.length, VERSION);
+        chunk.length = writeVarint(chunk.data, chunk.length, COORDINATE_SCALE);
+        writer = new Thread(() -> write(out), TAG);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Records the frame of {@code result}, see {@link #record(long, float[], float[])}.
+     */
+    public synchronized boolean record(PoseResult result) {
+        if (!result.hasPose()) {
+            return record(result.getTimestampNanos(), null, null);
+        }
+        for (int i = 0; i < likelihoodsBuffer.length; i++) {
+            likelihoodsBuffer[i] = result.getInFrameLikelihood(i);
+        }
+        return record(result.getTimestampNanos(), result.getLandmarks(), likelihoodsBuffer);
+    }
+
+    /**
+     * Records the frame captured at {@code timestampNanos}, {@code landmarks} and
+     * {@code inFrameLikelihoods} being null when no pose was found. Never blocks on I/O, returns
+     * false if the frame was dropped because the writer is behind, or the recorder is closed or
+     * failed to write.
+     */
+    public synchronized boolean record(
+            long timestampNanos, @Nullable float[] landmarks, @Nullable float[] inFrameLikelihoods) {
+        if (closed || failed) {
+            return false;
+        }
+        if (chunk == null) {
+            chunk = freeChunks.poll();
+            if (chunk == null) {
+                droppedFrames++;
+                // The next frame must not depend on this one.
+                lastHasPose = false;
+                return false;
+            }
+        }
+        byte[] data = chunk.data;
+        int position = chunk.length;
+        position = writeVarint(data, position, timestampNanos - lastTimestampNanos);
+        lastTimestampNanos = timestampNanos;
+        boolean hasPose = landmarks != null;
+        boolean keyFrame = !lastHasPose;
+        data[position++] = (byte) ((hasPose ? FLAG_POSE : 0) | (keyFrame ? FLAG_KEY_FRAME : 0));
+        if (hasPose) {
+            if (keyFrame) {
+                Arrays.fill(lastCoordinates, 0);
+                Arrays.fill(lastLikelihoods, 0);
+            }
+            for (int i = 0; i < lastCoordinates.length; i++) {
+                int coordinate = Math.round(landmarks[i] * COORDINATE_SCALE);
+                position = writeVarint(data, position, zigzag(coordinate - lastCoordinates[i]));
+                lastCoordinates[i] = coordinate;
+            }
+            for (int i = 0; i < lastLikelihoods.length; i++) {
+                float likelihood = inFrameLikelihoods != null ? inFrameLikelihoods[i] : 0;
+                int quantized = Math.round(
+                        Math.max(0, Math.min(1, likelihood)) * LIKELIHOOD_SCALE);
+                position = writeVarint(data, position, zigzag(quantized - lastLikelihoods[i]));
+                lastLikelihoods[i] = quantized;
+            }
+        }
+        lastHasPose = hasPose;
+        chunk.length = position;
+        recordedFrames++;
+
+        if (CHUNK_SIZE - position < MAX_FRAME_BYTES) {
+            // Always room, there are no more chunks than the queue holds.
+            fullChunks.add(chunk);
+            chunk = null;
+        }
+        return true;
+    }
+
+    public synchronized long getRecordedFrameCount() {
+        return recordedFrames;
+    }
+
+    public synchronized long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    /**
+     * Hands what is left to the writer, which then closes the log. Does not wait for it, see
+     * {@link #awaitWritten()}.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (chunk != null) {
+            fullChunks.add(chunk);
+            chunk = null;
+        }
+        fullChunks.add(END);
+    }
+
+    /**
+     * Waits for the writer to finish the log after {@link #close()}, returns whether everything
+     * recorded was written.
+     */
+    public boolean awaitWritten() throws InterruptedException {
+        writer.join();
+        return !failed;
+    }
+
+    // Runs on the writer thread.
+    private void write(OutputStream out) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream deflaterOut =
+                     new DeflaterOutputStream(out, deflater, CHUNK_SIZE, /* syncFlush= */ true)) {
+            Chunk full;
+            while ((full = fullChunks.take()) != END) {
+                if (!failed) {
+                    try {
+                        deflaterOut.write(full.data, 0, full.length);
+                        // Makes the chunk replayable even if the log is never closed.
+                        deflaterOut.flush();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to write landmark session", e);
+                        failed = true;
+                    }
+                }
+                full.length = 0;
+                freeChunks.add(full);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close landmark session", e);
+            failed = true;
+        } catch (InterruptedException e) {
+            failed = true;
+            Thread.currentThread().interrupt();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int writeVarint(byte[] data, int position, long value) {
+        while ((value & ~0x7fL) != 0) {
+            data[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[position++] = (byte) value;
+        return position;
+    }
+
+    private static int writeInt(byte[] data, int position, int value) {
+        data[position++] = (byte) (value >>> 24);
+        data[position++] = (byte) (value >>> 16);
+        data[position++] = (byte) (value >>> 8);
+        data[position++] = (byte) value;
+        return position;
+    }
+}
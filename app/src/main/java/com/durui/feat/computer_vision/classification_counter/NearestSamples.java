@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+/**
+ * Fixed-capacity top-K of sample ids by least distance, backed by primitive arrays.
+ *
+ * <p>It is a binary max-heap so the worst retained distance is always on top: that is the bound a
+ * new candidate has to beat, which is what lets distance kernels stop early. Nothing is allocated
+ * after construction, so one instance can be {@link #clear() cleared} and reused for every frame.
+ */
+public class NearestSamples {
+    private final int capacity;
+    private final int[] samples;
+    private final float[] distances;
+    private int size;
+
+    public NearestSamples(int capacity) {
+        this.capacity = capacity;
+        samples = new int[capacity];
+        distances = new float[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the distance a new sample has to be strictly below to be retained.
+     */
+    public float worstDistance() {
+        return size < capacity ? Float.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Retains {@code sample} if it is among the {@code capacity} closest offered so far.
+     */
+    public void offer(int sample, float distance) {
+        if (size < capacity) {
+            siftUp(size++, sample, distance);
+        } else if (capacity > 0 && distance < distances[0]) {
+            siftDown(0, sample, distance);
+        }
+    }
+
+    /**
+     * Returns the i-th retained sample, in no particular order.
+     */
+    public int getSample(int i) {
+        return samples[i];
+    }
+
+    public float getDistance(int i) {
+        return distances[i];
+    }
+
+    private void siftUp(int i, int sample, float distance) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (distances[parent] >= distance) {
+                break;
+            }
+            samples[i] = samples[parent];
+            distances[i] = distances[parent];
+            i = parent;
+        }
+        samples[i] = sample;
+        distances[i] = distance;
+    }
+
+    private void siftDown(int i, int sample, float distance) {
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && distances[child + 1] > distances[child]) {
+                child++;
+            }
+            if (distance >= distances[child]) {
+                break;
+            }
+            samples[i] = samples[child];
+            distances[i] = distances[child];
+            i = child;
+        }
+        samples[i] = sample;
+        distances[i] = distance;
+    }
+}
@@ -16,23 +16,22 @@
 
 package com.durui.feat.computer_vision.classification_counter;
 
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.maxAbs;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.multiply;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.multiplyAll;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.subtract;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.sumAbs;
-import static java.lang.Math.max;
+import static com.durui.feat.computer_vision.classification_counter.PoseSampleStore.NUM_DIMS;
 import static java.lang.Math.min;
 
-import android.util.Pair;
+import androidx.annotation.VisibleForTesting;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseLandmark;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Classifies {link Pose} based on given {@link PoseSample}s.
@@ -47,30 +46,108 @@ public class PoseClassifier {
     private static final int MEAN_DISTANCE_TOP_K = 10;
     // Note Z has a lower weight as it is generally less accurate than X & Y.
     private static final PointF3D AXES_WEIGHTS = PointF3D.from(1, 1, 0.2f);
+    // Sample libraries are split into shards searched in parallel only from this size on, and every
+    // shard keeps at least MIN_SHARD_SAMPLES. Set from PoseClassificationBenchmark.classify with
+    // libraryCopies=2..72 and shards=1,2,4 (932 to 33552 squat samples, JDK 17, 1 CPU): a single
+    // tree took 442, 613, 1186 and 1654 us at 4194, 8388, 16776 and 33552 samples, and 2 shards
+    // cost 48%, 53%, 32% and 17% more CPU. Below 16k samples halving the tree saves about a quarter
+    // of the latency for half again the CPU, taken from the pose detector; from 16k on it saves
+    // about half for a third more. The bundled libraries (a few hundred samples) never shard.
+    private static final int PARALLEL_MIN_SAMPLES = 16384;
+    private static final int MIN_SHARD_SAMPLES = 8192;
+    private static final int MAX_SHARDS = Math.min(4, Runtime.getRuntime().availableProcessors());
 
-    private final List<PoseSample> poseSamples;
+    // Shared by all classifiers; the calling thread always searches the first shard itself.
+    private static ExecutorService shardExecutor;
+
+    private final PoseSampleStore sampleStore;
+    // One tree per shard of the sample store, a single one for small libraries.
+    private final VantagePointTree[] sampleTrees;
     private final int maxDistanceTopK;
     private final int meanDistanceTopK;
-    private final PointF3D axesWeights;
+    private final float weightX;
+    private final float weightY;
+    private final float weightZ;
+
+    // Scratch buffers reused across frames so scoring against the sample store doesn't allocate.
+    // They are per thread, so a single classifier can be shared, e.g. by {@link PoseClassifierCache}.
+    private final ThreadLocal<Workspace> workspaces = new ThreadLocal<Workspace>() {
+        @Override
+        protected Workspace initialValue() {
+            return new Workspace(sampleTrees, maxDistanceTopK, meanDistanceTopK);
+        }
+    };
 
     public PoseClassifier(List<PoseSample> poseSamples) {
-        this(poseSamples, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
+        this(new PoseSampleStore(poseSamples));
+    }
+
+    public PoseClassifier(PoseSampleStore sampleStore) {
+        this(sampleStore, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS);
     }
 
     public PoseClassifier(List<PoseSample> poseSamples, int maxDistanceTopK,
                           int meanDistanceTopK, PointF3D axesWeights) {
-        this.poseSamples = poseSamples;
+        this(new PoseSampleStore(poseSamples), maxDistanceTopK, meanDistanceTopK, axesWeights);
+    }
+
+    public PoseClassifier(PoseSampleStore sampleStore, int maxDistanceTopK,
+                          int meanDistanceTopK, PointF3D axesWeights) {
+        this(sampleStore, maxDistanceTopK, meanDistanceTopK, axesWeights,
+                defaultNumShards(sampleStore.size()));
+    }
+
+    /**
+     * Splits the samples into {@code numShards} shards whatever their number, so the benchmark can
+     * compare sharded and single-tree search on the same library.
+     */
+    @VisibleForTesting
+    public PoseClassifier(PoseSampleStore sampleStore, int numShards) {
+        this(sampleStore, MAX_DISTANCE_TOP_K, MEAN_DISTANCE_TOP_K, AXES_WEIGHTS, numShards);
+    }
+
+    private PoseClassifier(PoseSampleStore sampleStore, int maxDistanceTopK,
+                           int meanDistanceTopK, PointF3D axesWeights, int numShards) {
+        this.sampleStore = sampleStore;
         this.maxDistanceTopK = maxDistanceTopK;
         this.meanDistanceTopK = meanDistanceTopK;
-        this.axesWeights = axesWeights;
+        this.weightX = axesWeights.getX();
+        this.weightY = axesWeights.getY();
+        this.weightZ = axesWeights.getZ();
+        int size = sampleStore.size();
+        this.sampleTrees = new VantagePointTree[Math.max(1, Math.min(numShards, size))];
+        if (sampleTrees.length == 1) {
+            sampleTrees[0] = new VantagePointTree(sampleStore, weightX, weightY, weightZ);
+        } else {
+            // Samples are dealt round-robin: stores are usually grouped by class, and a shard
+            // holding only far away classes would prune badly.
+            for (int i = 0; i < sampleTrees.length; i++) {
+                int[] shard = new int[(size - i + sampleTrees.length - 1) / sampleTrees.length];
+                for (int j = 0; j < shard.length; j++) {
+                    shard[j] = i + j * sampleTrees.length;
+                }
+                sampleTrees[i] = new VantagePointTree(sampleStore, shard, weightX, weightY, weightZ);
+            }
+        }
+    }
+
+    private static int defaultNumShards(int size) {
+        return size >= PARALLEL_MIN_SAMPLES ? Math.min(MAX_SHARDS, size / MIN_SHARD_SAMPLES) : 1;
     }
 
-    private static List<PointF3D> extractPoseLandmarks(Pose pose) {
-        List<PointF3D> landmarks = new ArrayList<>();
-        for (PoseLandmark poseLandmark : pose.getAllPoseLandmarks()) {
-            landmarks.add(poseLandmark.getPosition3D());
+    private static synchronized ExecutorService getShardExecutor() {
+        if (shardExecutor == null) {
+            shardExecutor = Executors.newFixedThreadPool(Math.max(1, MAX_SHARDS - 1), runnable -> {
+                Thread thread = new Thread(runnable, "PoseClassifierShard");
+                thread.setDaemon(true);
+                return thread;
+            });
         }
-        return landmarks;
+        return shardExecutor;
+    }
+
+    public PoseSampleStore getSampleStore() {
+        return sampleStore;
     }
 
     /**
@@ -84,23 +161,55 @@ public class PoseClassifier {
     }
 
     public ClassificationResult classify(Pose pose) {
-        return classify(extractPoseLandmarks(pose));
+        List<PoseLandmark> poseLandmarks = pose.getAllPoseLandmarks();
+        // Return early if no landmarks detected.
+        if (poseLandmarks.isEmpty()) {
+            return new ClassificationResult();
+        }
+        float[] landmarksBuffer = workspaces.get().landmarks;
+        for (int i = 0; i < poseLandmarks.size(); i++) {
+            PointF3D position = poseLandmarks.get(i).getPosition3D();
+            landmarksBuffer[i * NUM_DIMS] = position.getX();
+            landmarksBuffer[i * NUM_DIMS + 1] = position.getY();
+            landmarksBuffer[i * NUM_DIMS + 2] = position.getZ();
+        }
+        return classify(landmarksBuffer);
     }
 
     public ClassificationResult classify(List<PointF3D> landmarks) {
-        ClassificationResult result = new ClassificationResult();
         // Return early if no landmarks detected.
         if (landmarks.isEmpty()) {
-            return result;
+            return new ClassificationResult();
         }
+        float[] landmarksBuffer = workspaces.get().landmarks;
+        for (int i = 0; i < landmarks.size(); i++) {
+            PointF3D position = landmarks.get(i);
+            landmarksBuffer[i * NUM_DIMS] = position.getX();
+            landmarksBuffer[i * NUM_DIMS + 1] = position.getY();
+            landmarksBuffer[i * NUM_DIMS + 2] = position.getZ();
+        }
+        return classify(landmarksBuffer);
+    }
 
-        // We do flipping on X-axis so we are horizontal (mirror) invariant.
-        List<PointF3D> flippedLandmarks = new ArrayList<>(landmarks);
-        multiplyAll(flippedLandmarks, PointF3D.from(-1, 1, 1));
-
-        List<PointF3D> embedding = PoseEmbedding.getPoseEmbedding(landmarks);
-        List<PointF3D> flippedEmbedding = PoseEmbedding.getPoseEmbedding(flippedLandmarks);
+    /**
+     * Classifies {@link PoseEmbedding#NUM_LANDMARKS} landmarks packed as x, y, z triples.
+     */
+    public ClassificationResult classify(float[] landmarks) {
+        ClassificationResult result = new ClassificationResult(sampleStore.getClassDictionary());
+        Workspace workspace = workspaces.get();
+        float[] queryEmbedding = workspace.queryEmbedding;
+        float[] flippedQueryEmbedding = workspace.flippedQueryEmbedding;
+        NearestSamples maxDistances = workspace.maxDistances;
+        NearestSamples meanDistances = workspace.meanDistances;
 
+        // We stay horizontal (mirror) invariant by also scoring against the query flipped on X-axis.
+        // Flipping only negates X of the embedding, so it is computed once and mirrored here.
+        PoseEmbedding.getPoseEmbedding(landmarks, workspace.embedding, queryEmbedding, 0);
+        for (int i = 0; i < PoseSampleStore.EMBEDDING_LENGTH; i += NUM_DIMS) {
+            flippedQueryEmbedding[i] = -queryEmbedding[i];
+            flippedQueryEmbedding[i + 1] = queryEmbedding[i + 1];
+            flippedQueryEmbedding[i + 2] = queryEmbedding[i + 2];
+        }
 
         // Classification is done in two stages:
         //  * First we pick top-K samples by MAX distance. It allows to remove samples that are almost
@@ -108,65 +217,111 @@ public class PoseClassifier {
         //  * Then we pick top-K samples by MEAN distance. After outliers are removed, we pick samples
         //    that are closest by average.
 
-        // Keeps max distance on top so we can pop it when top_k size is reached.
-        PriorityQueue<Pair<PoseSample, Float>> maxDistances = new PriorityQueue<>(
-                maxDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
-        // Retrieve top K poseSamples by least distance to remove outliers.
-        for (PoseSample poseSample : poseSamples) {
-            List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
-
-            float originalMax = 0;
-            float flippedMax = 0;
-            for (int i = 0; i < embedding.size(); i++) {
-                originalMax =
-                        max(
-                                originalMax,
-                                maxAbs(multiply(subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights)));
-                flippedMax =
-                        max(
-                                flippedMax,
-                                maxAbs(
-                                        multiply(
-                                                subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights)));
+        // Keeps max distance on top so a sample only needs to beat it to be retained.
+        maxDistances.clear();
+        // Retrieve top K poseSamples by least distance to remove outliers. The max distance is the
+        // min of original and flipped max distance.
+        if (sampleTrees.length == 1) {
+            sampleTrees[0].searchMaxDistanceTopK(queryEmbedding, flippedQueryEmbedding, maxDistances);
+        } else {
+            searchShards(workspace);
+        }
+
+        // Keeps higher mean distances on top so a sample only needs to beat it to be retained.
+        meanDistances.clear();
+        // Retrive top K poseSamples by least mean distance to remove outliers. The mean distance is
+        // the min of original and flipped mean distances.
+        for (int i = 0; i < maxDistances.size(); i++) {
+            int sample = maxDistances.getSample(i);
+            meanDistances.offer(sample, sampleStore.meanDistance(
+                    sample, queryEmbedding, weightX, weightY, weightZ,
+                    meanDistances.worstDistance()));
+        }
+
+        for (int i = 0; i < meanDistances.size(); i++) {
+            result.incrementClassConfidence(sampleStore.getClassId(meanDistances.getSample(i)));
+        }
+
+        return result;
+    }
+
+    // Searches every shard into its own top-K, then merges them into the max distance top-K.
+    private static void searchShards(Workspace workspace) {
+        ShardSearch[] shardSearches = workspace.shardSearches;
+        Future<?>[] pendingShards = workspace.pendingShards;
+        ExecutorService executor = getShardExecutor();
+        Throwable shardFailure = null;
+        try {
+            for (int i = 1; i < shardSearches.length; i++) {
+                pendingShards[i] = executor.submit(shardSearches[i]);
             }
-            // Set the max distance as min of original and flipped max distance.
-            maxDistances.add(new Pair<>(poseSample, min(originalMax, flippedMax)));
-            // We only want to retain top n so pop the highest distance.
-            if (maxDistances.size() > maxDistanceTopK) {
-                maxDistances.poll();
+            shardSearches[0].run();
+        } finally {
+            // Shards write into this workspace, so every submitted one must be done before it is
+            // reused or an exception leaves, even if we are interrupted or another shard failed.
+            for (int i = 1; i < pendingShards.length; i++) {
+                Future<?> pendingShard = pendingShards[i];
+                if (pendingShard == null) {
+                    continue;
+                }
+                pendingShards[i] = null;
+                try {
+                    Uninterruptibles.getUninterruptibly(pendingShard);
+                } catch (ExecutionException e) {
+                    shardFailure = shardFailure != null ? shardFailure : e.getCause();
+                } catch (CancellationException e) {
+                    shardFailure = shardFailure != null ? shardFailure : e;
+                }
             }
         }
-
-        // Keeps higher mean distances on top so we can pop it when top_k size is reached.
-        PriorityQueue<Pair<PoseSample, Float>> meanDistances = new PriorityQueue<>(
-                meanDistanceTopK, (o1, o2) -> -Float.compare(o1.second, o2.second));
-        // Retrive top K poseSamples by least mean distance to remove outliers.
-        for (Pair<PoseSample, Float> sampleDistances : maxDistances) {
-            PoseSample poseSample = sampleDistances.first;
-            List<PointF3D> sampleEmbedding = poseSample.getEmbedding();
-
-            float originalSum = 0;
-            float flippedSum = 0;
-            for (int i = 0; i < embedding.size(); i++) {
-                originalSum += sumAbs(multiply(
-                        subtract(embedding.get(i), sampleEmbedding.get(i)), axesWeights));
-                flippedSum += sumAbs(
-                        multiply(subtract(flippedEmbedding.get(i), sampleEmbedding.get(i)), axesWeights));
+        if (shardFailure != null) {
+            throw new IllegalStateException("Pose sample shard search failed", shardFailure);
+        }
+        for (ShardSearch shardSearch : shardSearches) {
+            NearestSamples shardDistances = shardSearch.maxDistances;
+            for (int i = 0; i < shardDistances.size(); i++) {
+                workspace.maxDistances.offer(shardDistances.getSample(i), shardDistances.getDistance(i));
             }
-            // Set the mean distance as min of original and flipped mean distances.
-            float meanDistance = min(originalSum, flippedSum) / (embedding.size() * 2);
-            meanDistances.add(new Pair<>(poseSample, meanDistance));
-            // We only want to retain top k so pop the highest mean distance.
-            if (meanDistances.size() > meanDistanceTopK) {
-                meanDistances.poll();
+        }
+    }
+
+    private static class Workspace {
+        final float[] landmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+        final float[] embedding = new float[PoseEmbedding.LANDMARKS_LENGTH];
+        final float[] queryEmbedding = new float[PoseSampleStore.EMBEDDING_LENGTH];
+        final float[] flippedQueryEmbedding = new float[PoseSampleStore.EMBEDDING_LENGTH];
+        final NearestSamples maxDistances;
+        final NearestSamples meanDistances;
+        final ShardSearch[] shardSearches;
+        final Future<?>[] pendingShards;
+
+        Workspace(VantagePointTree[] sampleTrees, int maxDistanceTopK, int meanDistanceTopK) {
+            maxDistances = new NearestSamples(maxDistanceTopK);
+            meanDistances = new NearestSamples(meanDistanceTopK);
+            shardSearches = new ShardSearch[sampleTrees.length > 1 ? sampleTrees.length : 0];
+            for (int i = 0; i < shardSearches.length; i++) {
+                shardSearches[i] = new ShardSearch(sampleTrees[i], this, maxDistanceTopK);
             }
+            pendingShards = new Future<?>[shardSearches.length];
         }
+    }
 
-        for (Pair<PoseSample, Float> sampleDistances : meanDistances) {
-            String className = sampleDistances.first.getClassName();
-            result.incrementClassConfidence(className);
+    private static class ShardSearch implements Runnable {
+        final VantagePointTree sampleTree;
+        final Workspace workspace;
+        final NearestSamples maxDistances;
+
+        ShardSearch(VantagePointTree sampleTree, Workspace workspace, int maxDistanceTopK) {
+            this.sampleTree = sampleTree;
+            this.workspace = workspace;
+            this.maxDistances = new NearestSamples(maxDistanceTopK);
         }
 
-        return result;
+        @Override
+        public void run() {
+            maxDistances.clear();
+            sampleTree.searchMaxDistanceTopK(
+                    workspace.queryEmbedding, workspace.flippedQueryEmbedding, maxDistances);
+        }
     }
 }
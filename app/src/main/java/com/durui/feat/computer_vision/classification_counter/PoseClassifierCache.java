@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import timber.log.Timber;
+
+/**
+ * Process-wide cache of {@link PoseClassifier}s keyed by the asset path of their pose samples,
+ * e.g. {@code Sports.sports_csv}.
+ *
+ * <p>Classifiers are immutable apart from per-thread scratch buffers, so one instance is shared by
+ * every {@link PoseClassifierProcessor}: re-binding the camera or switching lenses no longer reloads
+ * the samples. Loading always happens on a background thread, callers on the classification thread
+ * only ever poll with {@link #getIfReady(String)}. At most {@link #MAX_ENTRIES} sample sets are kept,
+ * least recently used first out. The class names of a samples file are read from its pack header
+ * alone by {@link #getClassNamesIfReady(String)} and kept apart, so asking for them never loads or
+ * evicts a classifier.
+ */
+public class PoseClassifierCache {
+    private static final int MAX_ENTRIES = 4;
+    // Merged classifiers are keyed by their sample files, each prefixed by this separator.
+    private static final String MERGED_KEY_SEPARATOR = "|";
+
+    private static PoseClassifierCache instance;
+
+    private final Context context;
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, Future<PoseClassifier>> classifiers =
+            new LinkedHashMap<String, Future<PoseClassifier>>(
+                    MAX_ENTRIES, 0.75f, /* accessOrder= */ true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Future<PoseClassifier>> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    // A few names per samples file, never evicted.
+    private final Map<String, Future<String[]>> classNames = new HashMap<>();
+
+    private PoseClassifierCache(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    public static synchronized PoseClassifierCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new PoseClassifierCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Starts loading the classifier for {@code samplesFile} in the background if it isn't cached.
+     */
+    public void prewarm(String samplesFile) {
+        load(samplesFile);
+    }
+
+    /**
+     * Returns the classifier for {@code samplesFile} if it is loaded, otherwise starts loading it and
+     * returns null. Never blocks on I/O.
+     */
+    @Nullable
+    public PoseClassifier getIfReady(String samplesFile) {
+        Future<PoseClassifier> classifier = load(samplesFile);
+        if (!classifier.isDone()) {
+            return null;
+        }
+        try {
+            return classifier.get();
+        } catch (ExecutionException | InterruptedException e) {
+            Timber.e(e, "Error when loading pose classifier for %s", samplesFile);
+            // Drop the failed entry so the next call retries.
+            synchronized (classifiers) {
+                classifiers.remove(samplesFile, classifier);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Returns the class names of {@code samplesFile} if they are read, otherwise starts reading them
+     * and returns null. Only the header of its pack is read, the classifier isn't loaded.
+     */
+    @Nullable
+    public String[] getClassNamesIfReady(String samplesFile) {
+        Future<String[]> names;
+        synchronized (classNames) {
+            names = classNames.get(samplesFile);
+            if (names == null) {
+                names = loadExecutor.submit(() -> loadClassNames(context, samplesFile));
+                classNames.put(samplesFile, names);
+            }
+        }
+        if (!names.isDone()) {
+            return null;
+        }
+        try {
+            return names.get();
+        } catch (ExecutionException | InterruptedException e) {
+            Timber.e(e, "Error when reading pose classes of %s", samplesFile);
+            synchronized (classNames) {
+                classNames.remove(samplesFile, names);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Like {@link #getIfReady(String)} for a single classifier over the samples of all
+     * {@code samplesFiles}, class names being merged across files.
+     */
+    @Nullable
+    public PoseClassifier getMergedIfReady(List<String> samplesFiles) {
+        return getIfReady(MERGED_KEY_SEPARATOR + String.join(MERGED_KEY_SEPARATOR, samplesFiles));
+    }
+
+    private Future<PoseClassifier> load(String key) {
+        synchronized (classifiers) {
+            Future<PoseClassifier> classifier = classifiers.get(key);
+            if (classifier == null) {
+                classifier = loadExecutor.submit(() -> new PoseClassifier(loadPoseSamples(key)));
+                classifiers.put(key, classifier);
+            }
+            return classifier;
+        }
+    }
+
+    private PoseSampleStore loadPoseSamples(String key) {
+        if (!key.startsWith(MERGED_KEY_SEPARATOR)) {
+            return loadPoseSamples(context, key);
+        }
+        List<PoseSampleStore> sampleStores = new ArrayList<>();
+        for (String samplesFile : key.substring(1).split(Pattern.quote(MERGED_KEY_SEPARATOR))) {
+            // Reuse the samples of an already loaded classifier. Waiting for one still queued on
+            // the single load thread would deadlock, so those are loaded again instead.
+            Future<PoseClassifier> classifier;
+            synchronized (classifiers) {
+                classifier = classifiers.get(samplesFile);
+            }
+            PoseClassifier loadedClassifier = null;
+            if (classifier != null && classifier.isDone()) {
+                try {
+                    loadedClassifier = classifier.get();
+                } catch (ExecutionException | InterruptedException e) {
+                    // Load it again below.
+                }
+            }
+            sampleStores.add(loadedClassifier != null
+                    ? loadedClassifier.getSampleStore()
+                    : loadPoseSamples(context, samplesFile));
+        }
+        return PoseSampleStore.merge(sampleStores);
+    }
+
+    /**
+     * Loads the {@link PoseSamplePack} generated from {@code samplesFile}, the csv itself isn't in
+     * the apk. The pack is read in one go, its embeddings are copied into the store anyway.
+     */
+    private static PoseSampleStore loadPoseSamples(Context context, String samplesFile) {
+        String packFile = PoseSamplePack.packPathFor(samplesFile);
+        try {
+            return PoseSamplePack.read(ByteBuffer.wrap(readAsset(context, packFile)));
+        } catch (IOException e) {
+            Timber.e(e, "Error when loading pose samples %s", packFile);
+            return new PoseSampleStore(new ArrayList<>());
+        }
+    }
+
+    private static String[] loadClassNames(Context context, String samplesFile) {
+        String packFile = PoseSamplePack.packPathFor(samplesFile);
+        try (InputStream inputStream = context.getAssets().open(packFile)) {
+            return PoseSamplePack.readClassNames(inputStream);
+        } catch (IOException e) {
+            Timber.e(e, "Error when reading pose classes %s", packFile);
+            return new String[0];
+        }
+    }
+
+    private static byte[] readAsset(Context context, String file) throws IOException {
+        try (InputStream inputStream = context.getAssets().open(file)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                outputStream.write(chunk, 0, read);
+            }
+            return outputStream.toByteArray();
+        }
+    }
+}
@@ -19,29 +19,23 @@ package com.durui.feat.computer_vision.classification_counter;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.ViewModel;
 
 import com.durui.feat.computer_vision.preference.PreferenceUtils;
+import com.durui.feat.computer_vision.vision_base.generic.LatencyHistogram;
 import com.durui.feat.software_interface.ui.exercise.LivePreviewActivity;
 import com.durui.feat.software_interface.ui.exercise.MyCameraXViewModel;
 import com.google.common.base.Preconditions;
 import com.google.mlkit.vision.pose.Pose;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-
-import timber.log.Timber;
-
 /**
- * Accepts a stream of {@link Pose} for classification and Rep counting.
+ * Accepts a stream of {@link Pose}s, as {@link PoseResult}s, for classification and Rep counting.
  */
 public class PoseClassifierProcessor {
     //durui
@@ -57,35 +51,31 @@ public class PoseClassifierProcessor {
     private final Context context;
 
     private static final String TAG = "PoseClassifierProcessor";
-    private static final String POSE_SAMPLES_FILE = SQUAT_FILE;
-
-    // Specify classes for which we want rep counting.
-    // These are the labels in the given {@code POSE_SAMPLES_FILE}. You can set your own class labels
-    // for your pose samples.
-    private static final String PUSHUPS_CLASS = "pushups_down";
-    private static final String SQUATS_CLASS = "squats_down";
-
-    private static final String[] POSE_CLASSES = {
-            PUSHUPS_CLASS, SQUATS_CLASS
-    };
+    // Frames in a row the coarse exercise pass has to agree on before switching exercise.
+    private static final int EXERCISE_SWITCH_FRAMES = 15;
 
     private final boolean isStreamMode;
-
-    private EMASmoothing emaSmoothing;
-    private List<RepetitionCounter> repCounters;
-    private PoseClassifier poseClassifier;
-    private String lastRepResult;
+    private final boolean detectExercise;
+
+    // Smoothing and rep counting of the active exercise in stream mode, built for the classes of its
+    // samples once its classifier is loaded.
+    @Nullable
+    private RepCountingEngine repCountingEngine;
+    private PoseClassifierCache classifierCache;
+    private PoseClassifierRegistry classifierRegistry;
+    private String samplesFile;
+    private long candidateSportsId = PoseClassifierRegistry.NO_SPORTS_ID;
+    private int candidateFrames;
+    @Nullable
+    private LatencyHistogram smoothingLatency;
 
     @WorkerThread
     public PoseClassifierProcessor(Context context, boolean isStreamMode) {
         Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
         this.context = context;
         this.isStreamMode = isStreamMode;
-        if (isStreamMode) {
-            emaSmoothing = new EMASmoothing();
-            repCounters = new ArrayList<>();
-            lastRepResult = "";
-        }
+        this.detectExercise = isStreamMode
+                && PreferenceUtils.shouldPoseDetectionDetectExercise(context);
         loadPoseSamples(context);
 
         if (reps==null){
@@ -98,86 +88,125 @@ public class PoseClassifierProcessor {
     }
 
     private void loadPoseSamples(Context context) {
-        List<PoseSample> poseSamples = new ArrayList<>();
-        try {
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(context.getAssets().open(POSE_SAMPLES_FILE)));
-            String csvLine = reader.readLine();
-            while (csvLine != null) {
-                // If line is not a valid {@link PoseSample}, we'll get null and skip adding to the list.
-                PoseSample poseSample = PoseSample.getPoseSample(csvLine, ",");
-                if (poseSample != null) {
-                    poseSamples.add(poseSample);
-                }
-                csvLine = reader.readLine();
-            }
-        } catch (IOException e) {
-            Timber.e("Error when loading pose samples.\n" + e);
-        }
-        poseClassifier = new PoseClassifier(poseSamples);
-        if (isStreamMode) {
-            for (String className : POSE_CLASSES) {
-                repCounters.add(new RepetitionCounter(className));
-            }
-        }
+        // Samples are shared and loaded in the background, so this never blocks on I/O.
+        classifierCache = PoseClassifierCache.getInstance(context);
+        classifierRegistry = PoseClassifierRegistry.getInstance(context);
+        samplesFile = classifierRegistry.getActiveSamplesFile();
+        classifierCache.prewarm(samplesFile);
+    }
+
+    /**
+     * Sets the histogram EMA smoothing latency is recorded in, if any.
+     */
+    public void setSmoothingLatencyHistogram(@Nullable LatencyHistogram smoothingLatency) {
+        this.smoothingLatency = smoothingLatency;
     }
 
     /**
-     * Given a new {@link Pose} input, returns a list of formatted {@link String}s with Pose
-     * classification results.
+     * Classifies the pose in {@code result} and sets its classification, and in stream mode its
+     * rep count.
      *
-     * <p>Currently it returns up to 2 strings as following:
+     * <p>Only values are set, the text shown for them is formatted when it is drawn:
      * 0: PoseClass : X reps
      * 1: PoseClass : [0.0-1.0] confidence
      */
     @WorkerThread
-    public List<String> getPoseResult(Pose pose) {
+    public void getPoseResult(PoseResult result) {
         Preconditions.checkState(Looper.myLooper() != Looper.getMainLooper());
-        List<String> result = new ArrayList<>();
-        ClassificationResult classification = poseClassifier.classify(pose);
+        result.clearClassification();
+        if (detectExercise && result.hasPose()) {
+            detectExercise(result.getLandmarks());
+        }
+        String activeSamplesFile = classifierRegistry.getActiveSamplesFile();
+        if (!activeSamplesFile.equals(samplesFile)) {
+            // The exercise changed, its classes have nothing to do with the smoothed history or the
+            // counters. Its own classes are counted from zero once its classifier is loaded.
+            samplesFile = activeSamplesFile;
+            repCountingEngine = null;
+            if (isStreamMode) {
+                MyCameraXViewModel.setReps(0);
+            }
+        }
+        PoseClassifier poseClassifier = classifierCache.getIfReady(samplesFile);
+        if (poseClassifier == null) {
+            // Still loading, keep showing the last result rather than waiting for it.
+            if (repCountingEngine != null) {
+                result.setReps(
+                        repCountingEngine.getLastRepClassName(), repCountingEngine.getLastReps());
+            }
+            return;
+        }
+        if (isStreamMode && repCountingEngine == null) {
+            repCountingEngine = new RepCountingEngine(RepCountingEngine.getRepClassNames(
+                    poseClassifier.getSampleStore().getClassDictionary()));
+            repCountingEngine.setRepListener(this::onRep);
+        }
+        float[] landmarks = result.hasPose() ? result.getLandmarks() : null;
+        ClassificationResult classification = landmarks != null
+                ? poseClassifier.classify(landmarks)
+                : new ClassificationResult();
 
         // Update {@link RepetitionCounter}s if {@code isStreamMode}.
         if (isStreamMode) {
             // Feed pose to smoothing even if no pose found.
-            classification = emaSmoothing.getSmoothedResult(classification);
-
-            // Return early without updating repCounter if no pose found.
-            if (pose.getAllPoseLandmarks().isEmpty()) {
-                result.add(lastRepResult);
-                return result;
+            long smoothingStartNanos = SystemClock.elapsedRealtimeNanos();
+            classification = repCountingEngine.smooth(classification, result.getTimestampNanos());
+            if (smoothingLatency != null) {
+                smoothingLatency.recordNanos(SystemClock.elapsedRealtimeNanos() - smoothingStartNanos);
             }
 
-            for (RepetitionCounter repCounter : repCounters) {
-                int repsBefore = repCounter.getNumRepeats();
-                int repsAfter = repCounter.addClassificationResult(classification);
-                if (repsAfter > repsBefore) {
-                    // Play a fun beep when rep counter updates.
-                    //ToneGenerator tg = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 100);
-                    //tg.startTone(ToneGenerator....);
-                    if (PreferenceUtils.shouldPoseDetectionRunClassificationEnableTTS(context)) {
-                        ((LivePreviewActivity) context).getTextToSpeech().speak(repsAfter + "", TextToSpeech.QUEUE_ADD, null);
-                    }
-                    MyCameraXViewModel.setReps(repsAfter);
-                    lastRepResult = String.format(Locale.US, "%s : %d reps", repCounter.getClassName(), repsAfter);
-                    break;
-                }
+            // Don't update the rep counters if no pose found.
+            if (result.hasPose()) {
+                repCountingEngine.count(classification, result.getTimestampNanos());
             }
-            result.add(lastRepResult);
+            result.setReps(repCountingEngine.getLastRepClassName(), repCountingEngine.getLastReps());
         }
 
         // Add maxConfidence class of current frame to result if pose is found.
-        if (!pose.getAllPoseLandmarks().isEmpty()) {
-            String maxConfidenceClass = classification.getMaxConfidenceClass();
-            String maxConfidenceClassResult = String.format(
-                    Locale.US,
-                    "%s : %.2f confidence",
-                    maxConfidenceClass,
-                    classification.getClassConfidence(maxConfidenceClass)
+        int maxConfidenceClassId = classification.getMaxConfidenceClassId();
+        if (result.hasPose() && maxConfidenceClassId != ClassDictionary.NO_CLASS_ID) {
+            result.setClassification(
+                    maxConfidenceClassId,
+                    classification.getClassDictionary().getClassName(maxConfidenceClassId),
+                    classification.getClassConfidence(maxConfidenceClassId)
                             / poseClassifier.confidenceRange());
-            result.add(maxConfidenceClassResult);
         }
+    }
+
+    private void onRep(String repClassName, int reps, long timestampNanos) {
+        // Play a fun beep when rep counter updates.
+        //ToneGenerator tg = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, 100);
+        //tg.startTone(ToneGenerator....);
+        if (PreferenceUtils.shouldPoseDetectionRunClassificationEnableTTS(context)) {
+            ((LivePreviewActivity) context).getTextToSpeech().speak(reps + "", TextToSpeech.QUEUE_ADD, null);
+        }
+        MyCameraXViewModel.setReps(reps);
+    }
 
-        return result;
+    /**
+     * Runs the coarse pass over the samples of every exercise and makes its winner the active
+     * exercise once it wins {@link #EXERCISE_SWITCH_FRAMES} frames in a row.
+     */
+    private void detectExercise(float[] landmarks) {
+        PoseClassifier exerciseClassifier = classifierRegistry.getExerciseClassifierIfReady();
+        if (exerciseClassifier == null) {
+            return;
+        }
+        String exerciseClass = exerciseClassifier.classify(landmarks).getMaxConfidenceClass();
+        long sportsId = classifierRegistry.getSportsIdForClass(exerciseClass);
+        if (sportsId == PoseClassifierRegistry.NO_SPORTS_ID
+                || sportsId == classifierRegistry.getActiveSportsId()) {
+            candidateFrames = 0;
+            return;
+        }
+        if (sportsId != candidateSportsId) {
+            candidateSportsId = sportsId;
+            candidateFrames = 0;
+        }
+        if (++candidateFrames >= EXERCISE_SWITCH_FRAMES) {
+            classifierRegistry.setActiveSports(sportsId);
+            candidateFrames = 0;
+        }
     }
 
     public MutableLiveData<String> getClassName() {
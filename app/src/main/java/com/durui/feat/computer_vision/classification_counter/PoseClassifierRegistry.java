@@ -0,0 +1,154 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import android.content.Context;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide registry of the exercises that can be counted, one per {@code Sports} row, mapping
+ * their sports id to the pose samples file ({@code Sports.sports_csv}) their classifier is built
+ * from through {@link PoseClassifierCache}.
+ *
+ * <p>Exactly one exercise is active at a time. Switching it only changes which cached classifier
+ * {@link PoseClassifierProcessor} polls for the next frame, so the detector keeps running. For
+ * sessions mixing exercises, {@link #getExerciseClassifierIfReady()} returns a coarse classifier over
+ * the samples of every registered exercise, and {@link #getSportsIdForClass(String)} maps its
+ * classes back to their exercise.
+ */
+public class PoseClassifierRegistry {
+    public static final long NO_SPORTS_ID = -1;
+
+    private static PoseClassifierRegistry instance;
+
+    private final PoseClassifierCache classifierCache;
+    private final Map<Long, String> samplesFiles = new LinkedHashMap<>();
+    // Replaced as a whole once every class is indexed, never modified after.
+    private volatile Map<String, Long> sportsIdByClass = Collections.emptyMap();
+    private volatile long activeSportsId = NO_SPORTS_ID;
+    private volatile String activeSamplesFile;
+    // Snapshot of all registered samples files, replaced on every registration.
+    private volatile List<String> allSamplesFiles = new ArrayList<>();
+    // The snapshot whose classes are all in {@code sportsIdByClass}.
+    private volatile List<String> indexedSamplesFiles;
+
+    private PoseClassifierRegistry(PoseClassifierCache classifierCache, String defaultSamplesFile) {
+        this.classifierCache = classifierCache;
+        this.activeSamplesFile = defaultSamplesFile;
+    }
+
+    public static synchronized PoseClassifierRegistry getInstance(Context context) {
+        if (instance == null) {
+            instance = new PoseClassifierRegistry(
+                    PoseClassifierCache.getInstance(context), PoseClassifierProcessor.SQUAT_FILE);
+        }
+        return instance;
+    }
+
+    /**
+     * Registers the samples file of an exercise. Registering the file that is active by default
+     * also makes its sports id the active one.
+     */
+    public synchronized void register(long sportsId, String samplesFile) {
+        samplesFiles.put(sportsId, samplesFile);
+        allSamplesFiles = new ArrayList<>(samplesFiles.values());
+        if (sportsId == activeSportsId) {
+            activeSamplesFile = samplesFile;
+        } else if (activeSportsId == NO_SPORTS_ID && samplesFile.equals(activeSamplesFile)) {
+            activeSportsId = sportsId;
+        }
+    }
+
+    /**
+     * Makes {@code sportsId} the exercise being counted and starts loading its classifier. An id
+     * that isn't registered yet takes effect once it is.
+     */
+    public synchronized void setActiveSports(long sportsId) {
+        activeSportsId = sportsId;
+        String samplesFile = samplesFiles.get(sportsId);
+        if (samplesFile != null) {
+            activeSamplesFile = samplesFile;
+            classifierCache.prewarm(samplesFile);
+        }
+    }
+
+    public long getActiveSportsId() {
+        return activeSportsId;
+    }
+
+    public String getActiveSamplesFile() {
+        return activeSamplesFile;
+    }
+
+    /**
+     * Returns a classifier over the samples of every registered exercise, or null while it is
+     * loading or if fewer than two exercises are registered.
+     */
+    @Nullable
+    public PoseClassifier getExerciseClassifierIfReady() {
+        List<String> samplesFiles = allSamplesFiles;
+        if (samplesFiles.size() < 2) {
+            return null;
+        }
+        PoseClassifier exerciseClassifier = classifierCache.getMergedIfReady(samplesFiles);
+        if (exerciseClassifier != null && indexedSamplesFiles != samplesFiles) {
+            indexClasses(samplesFiles);
+        }
+        return exerciseClassifier;
+    }
+
+    /**
+     * Returns the exercise whose samples define {@code className}, or {@link #NO_SPORTS_ID} if it is
+     * unknown or shared by several exercises.
+     */
+    public long getSportsIdForClass(String className) {
+        Long sportsId = sportsIdByClass.get(className);
+        return sportsId != null ? sportsId : NO_SPORTS_ID;
+    }
+
+    // Maps every class of the registered samples files to its sports id, once their names are read.
+    // Only pack headers are read, so the cache keeps its few classifiers however many are registered.
+    private void indexClasses(List<String> samplesFiles) {
+        Map<Long, String> registered;
+        synchronized (this) {
+            registered = new HashMap<>(this.samplesFiles);
+        }
+        Map<String, Long> index = new HashMap<>();
+        for (Map.Entry<Long, String> entry : registered.entrySet()) {
+            String[] classNames = classifierCache.getClassNamesIfReady(entry.getValue());
+            if (classNames == null) {
+                // Reading, keep the previous index and try again on the next frame.
+                return;
+            }
+            long sportsId = entry.getKey();
+            for (String className : classNames) {
+                Long owner = index.get(className);
+                index.put(className, owner == null || owner == sportsId ? sportsId : NO_SPORTS_ID);
+            }
+        }
+        sportsIdByClass = Collections.unmodifiableMap(index);
+        indexedSamplesFiles = samplesFiles;
+    }
+}
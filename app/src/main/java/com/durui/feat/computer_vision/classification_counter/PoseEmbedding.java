@@ -16,11 +16,7 @@
 
 package com.durui.feat.computer_vision.classification_counter;
 
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.average;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.l2Norm2D;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.multiplyAll;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.subtract;
-import static com.durui.feat.computer_vision.classification_counter.PointF3DUtils.subtractAll;
+import static com.durui.feat.computer_vision.classification_counter.PoseSampleStore.NUM_DIMS;
 
 import com.google.mlkit.vision.common.PointF3D;
 import com.google.mlkit.vision.pose.PoseLandmark;
@@ -30,48 +26,145 @@ import java.util.List;
 
 /**
  * Generates embedding for given list of Pose landmarks.
+ *
+ * <p>Besides the list-based API there is a primitive one working on packed x, y, z triples that
+ * writes into caller-supplied buffers, so it can be used on the per-frame path without allocating.
+ * Both produce bit-identical values.
  */
 public class PoseEmbedding {
+    // Number of pairwise distances returned by {@link #getPoseEmbedding(List)}.
+    public static final int NUM_EMBEDDING_POINTS = 23;
+    public static final int NUM_LANDMARKS = 33;
+    // Length of packed landmarks and of the workspace needed by the primitive API.
+    public static final int LANDMARKS_LENGTH = NUM_LANDMARKS * NUM_DIMS;
     // Multiplier to apply to the torso to get minimal body size. Picked this by experimentation.
     private static final float TORSO_MULTIPLIER = 2.5f;
 
+    // We use several pairwise 3D distances to form pose embedding. These were selected
+    // based on experimentation for best results with our default pose classes as captued in the
+    // pose samples csv. Feel free to play with this and add or remove for your use-cases.
+    //
+    // Each pair {from, to} yields (to - from). The first embedding point, hips center to shoulders
+    // center, isn't a landmark pair and is computed separately.
+    private static final int[][] LANDMARK_PAIRS = {
+            // One joint.
+            {PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ELBOW},
+            {PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ELBOW},
+
+            {PoseLandmark.LEFT_ELBOW, PoseLandmark.LEFT_WRIST},
+            {PoseLandmark.RIGHT_ELBOW, PoseLandmark.RIGHT_WRIST},
+
+            {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_KNEE},
+            {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_KNEE},
+
+            {PoseLandmark.LEFT_KNEE, PoseLandmark.LEFT_ANKLE},
+            {PoseLandmark.RIGHT_KNEE, PoseLandmark.RIGHT_ANKLE},
+
+            // Two joints.
+            {PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_WRIST},
+            {PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_WRIST},
+
+            {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_ANKLE},
+            {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_ANKLE},
+
+            // Four joints.
+            {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_WRIST},
+            {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_WRIST},
+
+            // Five joints.
+            {PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ANKLE},
+            {PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ANKLE},
+
+            {PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_WRIST},
+            {PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_WRIST},
+
+            // Cross body.
+            {PoseLandmark.LEFT_ELBOW, PoseLandmark.RIGHT_ELBOW},
+            {PoseLandmark.LEFT_KNEE, PoseLandmark.RIGHT_KNEE},
+
+            {PoseLandmark.LEFT_WRIST, PoseLandmark.RIGHT_WRIST},
+            {PoseLandmark.LEFT_ANKLE, PoseLandmark.RIGHT_ANKLE},
+    };
+
     public static List<PointF3D> getPoseEmbedding(List<PointF3D> landmarks) {
-        List<PointF3D> normalizedLandmarks = normalize(landmarks);
-        return getEmbedding(normalizedLandmarks);
+        float[] packedLandmarks = new float[LANDMARKS_LENGTH];
+        for (int i = 0; i < NUM_LANDMARKS; i++) {
+            PointF3D landmark = landmarks.get(i);
+            packedLandmarks[i * NUM_DIMS] = landmark.getX();
+            packedLandmarks[i * NUM_DIMS + 1] = landmark.getY();
+            packedLandmarks[i * NUM_DIMS + 2] = landmark.getZ();
+        }
+        float[] packedEmbedding = new float[NUM_EMBEDDING_POINTS * NUM_DIMS];
+        getPoseEmbedding(packedLandmarks, new float[LANDMARKS_LENGTH], packedEmbedding, 0);
+
+        List<PointF3D> embedding = new ArrayList<>(NUM_EMBEDDING_POINTS);
+        for (int i = 0; i < NUM_EMBEDDING_POINTS; i++) {
+            embedding.add(PointF3D.from(
+                    packedEmbedding[i * NUM_DIMS],
+                    packedEmbedding[i * NUM_DIMS + 1],
+                    packedEmbedding[i * NUM_DIMS + 2]));
+        }
+        return embedding;
     }
 
-    private static List<PointF3D> normalize(List<PointF3D> landmarks) {
-        List<PointF3D> normalizedLandmarks = new ArrayList<>(landmarks);
+    /**
+     * Computes the embedding of {@code landmarks} without allocating.
+     *
+     * @param landmarks {@link #NUM_LANDMARKS} packed x, y, z triples, left untouched.
+     * @param workspace scratch buffer of at least {@link #LANDMARKS_LENGTH} floats.
+     * @param embedding receives {@link #NUM_EMBEDDING_POINTS} packed x, y, z triples at
+     *                  {@code offset}.
+     */
+    public static void getPoseEmbedding(
+            float[] landmarks, float[] workspace, float[] embedding, int offset) {
+        normalize(landmarks, workspace);
+        getEmbedding(workspace, embedding, offset);
+    }
+
+    private static void normalize(float[] landmarks, float[] normalized) {
         // Normalize translation.
-        PointF3D center = average(
-                landmarks.get(PoseLandmark.LEFT_HIP), landmarks.get(PoseLandmark.RIGHT_HIP));
-        subtractAll(center, normalizedLandmarks);
-
-        // Normalize scale.
-        multiplyAll(normalizedLandmarks, 1 / getPoseSize(normalizedLandmarks));
-        // Multiplication by 100 is not required, but makes it easier to debug.
-        multiplyAll(normalizedLandmarks, 100);
-        return normalizedLandmarks;
+        int leftHip = PoseLandmark.LEFT_HIP * NUM_DIMS;
+        int rightHip = PoseLandmark.RIGHT_HIP * NUM_DIMS;
+        float centerX = (landmarks[leftHip] + landmarks[rightHip]) * 0.5f;
+        float centerY = (landmarks[leftHip + 1] + landmarks[rightHip + 1]) * 0.5f;
+        float centerZ = (landmarks[leftHip + 2] + landmarks[rightHip + 2]) * 0.5f;
+        for (int i = 0; i < LANDMARKS_LENGTH; i += NUM_DIMS) {
+            normalized[i] = landmarks[i] - centerX;
+            normalized[i + 1] = landmarks[i + 1] - centerY;
+            normalized[i + 2] = landmarks[i + 2] - centerZ;
+        }
+
+        // Normalize scale. Both multiplications are kept separate so we round exactly like the
+        // list-based version did.
+        float inverseSize = 1 / getPoseSize(normalized);
+        for (int i = 0; i < LANDMARKS_LENGTH; i++) {
+            // Multiplication by 100 is not required, but makes it easier to debug.
+            normalized[i] = normalized[i] * inverseSize * 100;
+        }
     }
 
     // Translation normalization should've been done prior to calling this method.
-    private static float getPoseSize(List<PointF3D> landmarks) {
+    private static float getPoseSize(float[] landmarks) {
         // Note: This approach uses only 2D landmarks to compute pose size as using Z wasn't helpful
         // in our experimentation but you're welcome to tweak.
-        PointF3D hipsCenter = average(
-                landmarks.get(PoseLandmark.LEFT_HIP), landmarks.get(PoseLandmark.RIGHT_HIP));
-
-        PointF3D shouldersCenter = average(
-                landmarks.get(PoseLandmark.LEFT_SHOULDER),
-                landmarks.get(PoseLandmark.RIGHT_SHOULDER));
-
-        float torsoSize = l2Norm2D(subtract(hipsCenter, shouldersCenter));
+        int leftHip = PoseLandmark.LEFT_HIP * NUM_DIMS;
+        int rightHip = PoseLandmark.RIGHT_HIP * NUM_DIMS;
+        int leftShoulder = PoseLandmark.LEFT_SHOULDER * NUM_DIMS;
+        int rightShoulder = PoseLandmark.RIGHT_SHOULDER * NUM_DIMS;
+        float hipsCenterX = (landmarks[leftHip] + landmarks[rightHip]) * 0.5f;
+        float hipsCenterY = (landmarks[leftHip + 1] + landmarks[rightHip + 1]) * 0.5f;
+        float shouldersCenterX = (landmarks[leftShoulder] + landmarks[rightShoulder]) * 0.5f;
+        float shouldersCenterY = (landmarks[leftShoulder + 1] + landmarks[rightShoulder + 1]) * 0.5f;
+
+        float torsoSize = (float) Math.hypot(
+                shouldersCenterX - hipsCenterX, shouldersCenterY - hipsCenterY);
 
         float maxDistance = torsoSize * TORSO_MULTIPLIER;
         // torsoSize * TORSO_MULTIPLIER is the floor we want based on experimentation but actual size
         // can be bigger for a given pose depending on extension of limbs etc so we calculate that.
-        for (PointF3D landmark : landmarks) {
-            float distance = l2Norm2D(subtract(hipsCenter, landmark));
+        for (int i = 0; i < LANDMARKS_LENGTH; i += NUM_DIMS) {
+            float distance = (float) Math.hypot(
+                    landmarks[i] - hipsCenterX, landmarks[i + 1] - hipsCenterY);
             if (distance > maxDistance) {
                 maxDistance = distance;
             }
@@ -79,64 +172,26 @@ public class PoseEmbedding {
         return maxDistance;
     }
 
-    private static List<PointF3D> getEmbedding(List<PointF3D> lm) {
-        List<PointF3D> embedding = new ArrayList<>();
-
-        // We use several pairwise 3D distances to form pose embedding. These were selected
-        // based on experimentation for best results with our default pose classes as captued in the
-        // pose samples csv. Feel free to play with this and add or remove for your use-cases.
-
-        // We group our distances by number of joints between the pairs.
-        // One joint.
-        embedding.add(subtract(
-                average(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.RIGHT_HIP)),
-                average(lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.RIGHT_SHOULDER))
-        ));
-
-        embedding.add(subtract(
-                lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_ELBOW)));
-        embedding.add(subtract(
-                lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_ELBOW)));
-
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_ELBOW), lm.get(PoseLandmark.LEFT_WRIST)));
-        embedding.add(subtract(lm.get(PoseLandmark.RIGHT_ELBOW), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_KNEE)));
-        embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_KNEE)));
-
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_KNEE), lm.get(PoseLandmark.LEFT_ANKLE)));
-        embedding.add(subtract(lm.get(PoseLandmark.RIGHT_KNEE), lm.get(PoseLandmark.RIGHT_ANKLE)));
-
-        // Two joints.
-        embedding.add(subtract(
-                lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_WRIST)));
-        embedding.add(subtract(
-                lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_ANKLE)));
-        embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_ANKLE)));
-
-        // Four joints.
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_WRIST)));
-        embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-        // Five joints.
-        embedding.add(subtract(
-                lm.get(PoseLandmark.LEFT_SHOULDER), lm.get(PoseLandmark.LEFT_ANKLE)));
-        embedding.add(subtract(
-                lm.get(PoseLandmark.RIGHT_SHOULDER), lm.get(PoseLandmark.RIGHT_ANKLE)));
-
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_HIP), lm.get(PoseLandmark.LEFT_WRIST)));
-        embedding.add(subtract(lm.get(PoseLandmark.RIGHT_HIP), lm.get(PoseLandmark.RIGHT_WRIST)));
-
-        // Cross body.
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_ELBOW), lm.get(PoseLandmark.RIGHT_ELBOW)));
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_KNEE), lm.get(PoseLandmark.RIGHT_KNEE)));
-
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_WRIST), lm.get(PoseLandmark.RIGHT_WRIST)));
-        embedding.add(subtract(lm.get(PoseLandmark.LEFT_ANKLE), lm.get(PoseLandmark.RIGHT_ANKLE)));
+    private static void getEmbedding(float[] lm, float[] embedding, int offset) {
+        // One joint: hips center to shoulders center.
+        int leftHip = PoseLandmark.LEFT_HIP * NUM_DIMS;
+        int rightHip = PoseLandmark.RIGHT_HIP * NUM_DIMS;
+        int leftShoulder = PoseLandmark.LEFT_SHOULDER * NUM_DIMS;
+        int rightShoulder = PoseLandmark.RIGHT_SHOULDER * NUM_DIMS;
+        for (int d = 0; d < NUM_DIMS; d++) {
+            float hipsCenter = (lm[leftHip + d] + lm[rightHip + d]) * 0.5f;
+            float shouldersCenter = (lm[leftShoulder + d] + lm[rightShoulder + d]) * 0.5f;
+            embedding[offset + d] = shouldersCenter - hipsCenter;
+        }
 
-        return embedding;
+        for (int p = 0; p < LANDMARK_PAIRS.length; p++) {
+            int from = LANDMARK_PAIRS[p][0] * NUM_DIMS;
+            int to = LANDMARK_PAIRS[p][1] * NUM_DIMS;
+            int out = offset + (p + 1) * NUM_DIMS;
+            embedding[out] = lm[to] - lm[from];
+            embedding[out + 1] = lm[to + 1] - lm[from + 1];
+            embedding[out + 2] = lm[to + 2] - lm[from + 2];
+        }
     }
 
     private PoseEmbedding() {
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import androidx.annotation.Nullable;
+
+import com.google.mlkit.vision.common.PointF3D;
+import com.google.mlkit.vision.pose.Pose;
+import com.google.mlkit.vision.pose.PoseLandmark;
+
+import java.util.List;
+
+/**
+ * Pose and classification of one frame, as handed from the detector through the classifier to the
+ * overlay.
+ *
+ * <p>Landmarks are copied out of the ML Kit {@link Pose} into primitive arrays indexed by landmark
+ * type, and the classification is kept as values rather than formatted text, so one instance can be
+ * reused for any number of frames through a {@link Pool}.
+ */
+public class PoseResult {
+    public static final int NUM_LANDMARKS = PoseEmbedding.NUM_LANDMARKS;
+    public static final int NO_CLASS_ID = ClassDictionary.NO_CLASS_ID;
+
+    // x, y, z triples, the layout PoseClassifier#classify(float[]) takes.
+    private final float[] landmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+    private final float[] inFrameLikelihoods = new float[NUM_LANDMARKS];
+    private boolean hasPose;
+    private long timestampNanos;
+
+    private int classId = NO_CLASS_ID;
+    @Nullable
+    private String className;
+    private float confidence;
+
+    @Nullable
+    private String repClassName;
+    private int reps;
+    private boolean showReps;
+
+    /**
+     * Copies the landmarks of {@code pose} and clears any classification.
+     */
+    public PoseResult setPose(Pose pose) {
+        List<PoseLandmark> poseLandmarks = pose.getAllPoseLandmarks();
+        hasPose = !poseLandmarks.isEmpty();
+        for (int i = 0; i < poseLandmarks.size(); i++) {
+            PoseLandmark landmark = poseLandmarks.get(i);
+            int type = landmark.getLandmarkType();
+            PointF3D position = landmark.getPosition3D();
+            landmarks[type * 3] = position.getX();
+            landmarks[type * 3 + 1] = position.getY();
+            landmarks[type * 3 + 2] = position.getZ();
+            inFrameLikelihoods[type] = landmark.getInFrameLikelihood();
+        }
+        clearClassification();
+        return this;
+    }
+
+    public void clearClassification() {
+        classId = NO_CLASS_ID;
+        className = null;
+        confidence = 0;
+        repClassName = null;
+        reps = 0;
+        showReps = false;
+    }
+
+    public void setClassification(int classId, String className, float confidence) {
+        this.classId = classId;
+        this.className = className;
+        this.confidence = confidence;
+    }
+
+    /**
+     * Sets the rep count to show, {@code repClassName} is null before the first rep.
+     */
+    public void setReps(@Nullable String repClassName, int reps) {
+        this.repClassName = repClassName;
+        this.reps = reps;
+        showReps = true;
+    }
+
+    /**
+     * Sets when the frame of this result was captured, the clock smoothing runs on.
+     */
+    public void setTimestampNanos(long timestampNanos) {
+        this.timestampNanos = timestampNanos;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public boolean hasPose() {
+        return hasPose;
+    }
+
+    /**
+     * Returns the landmarks packed as x, y, z triples indexed by landmark type. Only valid when
+     * {@link #hasPose()}, and not to be modified.
+     */
+    public float[] getLandmarks() {
+        return landmarks;
+    }
+
+    public float getInFrameLikelihood(int landmarkType) {
+        return inFrameLikelihoods[landmarkType];
+    }
+
+    public boolean hasClassification() {
+        return className != null;
+    }
+
+    public int getClassId() {
+        return classId;
+    }
+
+    @Nullable
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * Returns the confidence of {@link #getClassName()} in range [0.0-1.0].
+     */
+    public float getConfidence() {
+        return confidence;
+    }
+
+    public boolean showReps() {
+        return showReps;
+    }
+
+    @Nullable
+    public String getRepClassName() {
+        return repClassName;
+    }
+
+    public int getReps() {
+        return reps;
+    }
+
+    /**
+     * Recycles results between frames. Results not released, e.g. of frames dropped on the way,
+     * are simply left to the garbage collector and replaced by new ones.
+     */
+    public static class Pool {
+        private final PoseResult[] free;
+        private int size;
+
+        public Pool(int capacity) {
+            free = new PoseResult[capacity];
+        }
+
+        public synchronized PoseResult acquire() {
+            if (size == 0) {
+                return new PoseResult();
+            }
+            PoseResult result = free[--size];
+            free[size] = null;
+            return result;
+        }
+
+        public synchronized void release(PoseResult result) {
+            if (size < free.length) {
+                free[size++] = result;
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary form of a {@link PoseSampleStore}, so the classifier can start without parsing
+ * the pose samples csv and re-computing every embedding.
+ *
+ * <p>A pack holds already normalized embeddings and class ids, little-endian:
+ * <pre>
+ * int magic, int version, int embeddingLength, int numClasses, numClasses x (int byteLength, UTF-8 bytes),
+ * int numSamples, numSamples x int classId, numSamples x embeddingLength x float
+ * </pre>
+ *
+ * <p>The app only ships and loads the packs. They are generated next to their csv by
+ * {@code ./gradlew :benchmark:posePacks} and have to be regenerated whenever the csv or
+ * {@link PoseEmbedding} changes, which the benchmark module's tests check. The version is bumped
+ * with any change of the format or the embedding, so a pack left from before is rejected.
+ */
+public class PoseSamplePack {
+    public static final String EXTENSION = ".posepack";
+
+    private static final int MAGIC = 0x4b505350; // "PSPK"
+    private static final int VERSION = 3;
+    // Magic, version, embedding length and number of classes.
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    // Sanity bounds on a header, far above any real pack.
+    private static final int MAX_CLASSES = 1 << 16;
+    private static final int MAX_CLASS_NAME_BYTES = 1 << 16;
+
+    private PoseSamplePack() {
+    }
+
+    /**
+     * Returns the pack generated for the given pose samples csv.
+     */
+    public static String packPathFor(String csvPath) {
+        return (csvPath.endsWith(".csv")
+                ? csvPath.substring(0, csvPath.length() - ".csv".length())
+                : csvPath) + EXTENSION;
+    }
+
+    /**
+     * Reads a pack from {@code buffer}, starting at its position.
+     *
+     * @throws IOException if the buffer is no usable pack.
+     */
+    public static PoseSampleStore read(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_BYTES) {
+            throw new IOException("Not a pose sample pack");
+        }
+        try {
+            String[] classNames = new String[readHeader(buffer)];
+            for (int i = 0; i < classNames.length; i++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                classNames[i] = new String(name, StandardCharsets.UTF_8);
+            }
+
+            int numSamples = buffer.getInt();
+            int[] classIds = new int[numSamples];
+            buffer.asIntBuffer().get(classIds);
+            buffer.position(buffer.position() + numSamples * Integer.BYTES);
+            float[] embeddings = new float[numSamples * PoseSampleStore.EMBEDDING_LENGTH];
+            buffer.asFloatBuffer().get(embeddings);
+            buffer.position(buffer.position() + embeddings.length * Float.BYTES);
+            return new PoseSampleStore(embeddings, classIds, classNames);
+        } catch (RuntimeException e) {
+            // Truncated buffers and invalid sizes or class ids surface as runtime exceptions.
+            throw new IOException("Corrupted pose sample pack", e);
+        }
+    }
+
+    /**
+     * Reads only the class names at the start of a pack, without going through its samples, e.g.
+     * to know which exercise a class belongs to before its classifier is loaded.
+     *
+     * @throws IOException if the stream holds no usable pack.
+     */
+    public static String[] readClassNames(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[HEADER_BYTES];
+        data.readFully(header);
+        String[] classNames =
+                new String[readHeader(ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN))];
+        byte[] length = new byte[Integer.BYTES];
+        for (int i = 0; i < classNames.length; i++) {
+            data.readFully(length);
+            int nameLength = ByteBuffer.wrap(length).order(ByteOrder.LITTLE_ENDIAN).getInt();
+            // Unlike a buffer, a stream doesn't bound the length of a corrupted name.
+            if (nameLength < 0 || nameLength > MAX_CLASS_NAME_BYTES) {
+                throw new IOException("Corrupted pose sample pack");
+            }
+            byte[] name = new byte[nameLength];
+            data.readFully(name);
+            classNames[i] = new String(name, StandardCharsets.UTF_8);
+        }
+        return classNames;
+    }
+
+    // Checks magic, version and embedding length and returns the number of classes.
+    private static int readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a pose sample pack");
+        }
+        int version = buffer.getInt();
+        int embeddingLength = buffer.getInt();
+        if (version != VERSION || embeddingLength != PoseSampleStore.EMBEDDING_LENGTH) {
+            throw new IOException("Unsupported pose sample pack version " + version
+                    + " with embedding length " + embeddingLength);
+        }
+        int numClasses = buffer.getInt();
+        if (numClasses < 0 || numClasses > MAX_CLASSES) {
+            throw new IOException("Corrupted pose sample pack");
+        }
+        return numClasses;
+    }
+
+    /**
+     * Writes {@code sampleStore} as a pack.
+     */
+    public static void write(PoseSampleStore sampleStore, OutputStream out) throws IOException {
+        int numSamples = sampleStore.size();
+        byte[][] classNames = new byte[sampleStore.getNumClasses()][];
+        int size = 5 * Integer.BYTES;
+        for (int i = 0; i < classNames.length; i++) {
+            classNames[i] = sampleStore.getClassName(i).getBytes(StandardCharsets.UTF_8);
+            size += Integer.BYTES + classNames[i].length;
+        }
+        size += numSamples * (Integer.BYTES + PoseSampleStore.EMBEDDING_LENGTH * Float.BYTES);
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(PoseSampleStore.EMBEDDING_LENGTH);
+        buffer.putInt(classNames.length);
+        for (byte[] name : classNames) {
+            buffer.putInt(name.length).put(name);
+        }
+        buffer.putInt(numSamples);
+        for (int s = 0; s < numSamples; s++) {
+            buffer.putInt(sampleStore.getClassId(s));
+        }
+        for (float value : sampleStore.getEmbeddings()) {
+            buffer.putFloat(value);
+        }
+        out.write(buffer.array());
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import com.google.mlkit.vision.common.PointF3D;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, flat store of {@link PoseSample} embeddings used by {@link PoseClassifier}.
+ *
+ * <p>Samples are kept as parallel arrays instead of a list of objects: all embeddings live in one
+ * contiguous {@code float[]} and class names are interned into a small dictionary so every sample
+ * only carries an {@code int} class id. The embedding of sample {@code s} occupies
+ * {@code [s * EMBEDDING_LENGTH, (s + 1) * EMBEDDING_LENGTH)} as x, y, z triples.
+ */
+public class PoseSampleStore {
+    public static final int NUM_DIMS = 3;
+    public static final int EMBEDDING_LENGTH = PoseEmbedding.NUM_EMBEDDING_POINTS * NUM_DIMS;
+    // Mean distances have always been normalized by twice the number of embedding points.
+    private static final int MEAN_DIVISOR = PoseEmbedding.NUM_EMBEDDING_POINTS * 2;
+
+    private final int size;
+    private final float[] embeddings;
+    private final int[] classIds;
+    private final String[] classNames;
+    private final ClassDictionary classes;
+
+    public PoseSampleStore(List<PoseSample> poseSamples) {
+        size = poseSamples.size();
+        embeddings = new float[size * EMBEDDING_LENGTH];
+        classIds = new int[size];
+
+        List<String> classDictionary = new ArrayList<>();
+        Map<String, Integer> classIdByName = new HashMap<>();
+        for (int s = 0; s < size; s++) {
+            PoseSample poseSample = poseSamples.get(s);
+            String className = poseSample.getClassName();
+            Integer classId = classIdByName.get(className);
+            if (classId == null) {
+                classId = classDictionary.size();
+                classDictionary.add(className);
+                classIdByName.put(className, classId);
+            }
+            classIds[s] = classId;
+            flatten(poseSample.getEmbedding(), embeddings, s * EMBEDDING_LENGTH);
+        }
+        classNames = classDictionary.toArray(new String[0]);
+        classes = new ClassDictionary(classNames);
+    }
+
+    /**
+     * Wraps already computed embeddings, e.g. as read by {@link PoseSamplePack}. The arrays are
+     * taken over, not copied.
+     */
+    public PoseSampleStore(float[] embeddings, int[] classIds, String[] classNames) {
+        if (embeddings.length != classIds.length * EMBEDDING_LENGTH) {
+            throw new IllegalArgumentException("Embeddings don't match the number of class ids");
+        }
+        for (int classId : classIds) {
+            if (classId < 0 || classId >= classNames.length) {
+                throw new IllegalArgumentException("Invalid class id " + classId);
+            }
+        }
+        this.size = classIds.length;
+        this.embeddings = embeddings;
+        this.classIds = classIds;
+        this.classNames = classNames;
+        this.classes = new ClassDictionary(classNames);
+    }
+
+    /**
+     * Concatenates several stores into one, merging their class dictionaries by name.
+     */
+    public static PoseSampleStore merge(List<PoseSampleStore> sampleStores) {
+        int size = 0;
+        for (PoseSampleStore sampleStore : sampleStores) {
+            size += sampleStore.size;
+        }
+        float[] embeddings = new float[size * EMBEDDING_LENGTH];
+        int[] classIds = new int[size];
+        List<String> classDictionary = new ArrayList<>();
+        Map<String, Integer> classIdByName = new HashMap<>();
+        int s = 0;
+        for (PoseSampleStore sampleStore : sampleStores) {
+            int[] mergedClassIds = new int[sampleStore.classNames.length];
+            for (int c = 0; c < mergedClassIds.length; c++) {
+                String className = sampleStore.classNames[c];
+                Integer classId = classIdByName.get(className);
+                if (classId == null) {
+                    classId = classDictionary.size();
+                    classDictionary.add(className);
+                    classIdByName.put(className, classId);
+                }
+                mergedClassIds[c] = classId;
+            }
+            System.arraycopy(sampleStore.embeddings, 0, embeddings, s * EMBEDDING_LENGTH,
+                    sampleStore.size * EMBEDDING_LENGTH);
+            for (int i = 0; i < sampleStore.size; i++) {
+                classIds[s++] = mergedClassIds[sampleStore.classIds[i]];
+            }
+        }
+        return new PoseSampleStore(embeddings, classIds, classDictionary.toArray(new String[0]));
+    }
+
+    /**
+     * Copies a list-based embedding into {@code out} starting at {@code offset}.
+     */
+    public static void flatten(List<PointF3D> embedding, float[] out, int offset) {
+        for (int i = 0; i < embedding.size(); i++) {
+            PointF3D point = embedding.get(i);
+            out[offset + i * NUM_DIMS] = point.getX();
+            out[offset + i * NUM_DIMS + 1] = point.getY();
+            out[offset + i * NUM_DIMS + 2] = point.getZ();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getClassId(int sample) {
+        return classIds[sample];
+    }
+
+    public int getNumClasses() {
+        return classNames.length;
+    }
+
+    public String getClassName(int classId) {
+        return classNames[classId];
+    }
+
+    /**
+     * Returns the classes of these samples, those of the results of classifying against them.
+     */
+    public ClassDictionary getClassDictionary() {
+        return classes;
+    }
+
+    // Exposed for the kernels in this package only; callers must not modify it.
+    float[] getEmbeddings() {
+        return embeddings;
+    }
+
+    /**
+     * Returns the weighted max (Chebyshev) distance between {@code sample} and the embedding stored
+     * in {@code other} at {@code otherOffset}, without any mirroring. This is a proper metric, which
+     * {@link VantagePointTree} relies on.
+     */
+    float unmirroredMaxDistance(int sample, float[] other, int otherOffset, float wx, float wy, float wz) {
+        int offset = sample * EMBEDDING_LENGTH;
+        float maxDistance = 0;
+        for (int i = 0; i < EMBEDDING_LENGTH; i += NUM_DIMS) {
+            float dx = Math.abs((embeddings[offset + i] - other[otherOffset + i]) * wx);
+            float dy = Math.abs((embeddings[offset + i + 1] - other[otherOffset + i + 1]) * wy);
+            float dz = Math.abs((embeddings[offset + i + 2] - other[otherOffset + i + 2]) * wz);
+            maxDistance = Math.max(maxDistance, Math.max(Math.max(dx, dy), dz));
+        }
+        return maxDistance;
+    }
+
+    /**
+     * Returns the weighted max (Chebyshev) distance between {@code sample} and {@code query}, taking
+     * the smaller of the distances to the query as is and to the query mirrored along X.
+     *
+     * <p>Mirroring the landmarks only negates X, and every step of {@link PoseEmbedding} is
+     * symmetric under that, so the embedding of the mirrored pose is exactly the query with X
+     * negated. Both orientations can therefore be scored in one pass sharing the Y and Z terms.
+     *
+     * <p>Scoring stops as soon as the distance can no longer be below {@code bound}, in which case
+     * some value {@code >= bound} is returned. Pass {@link Float#POSITIVE_INFINITY} for the exact
+     * distance.
+     */
+    float maxDistance(int sample, float[] query, float wx, float wy, float wz, float bound) {
+        int offset = sample * EMBEDDING_LENGTH;
+        float originalMax = 0;
+        float flippedMax = 0;
+        for (int i = 0; i < EMBEDDING_LENGTH; i += NUM_DIMS) {
+            float sampleX = embeddings[offset + i];
+            float dx = Math.abs((sampleX - query[i]) * wx);
+            float flippedDx = Math.abs((sampleX + query[i]) * wx);
+            float dy = Math.abs((embeddings[offset + i + 1] - query[i + 1]) * wy);
+            float dz = Math.abs((embeddings[offset + i + 2] - query[i + 2]) * wz);
+            float dyz = Math.max(dy, dz);
+            originalMax = Math.max(originalMax, Math.max(dx, dyz));
+            flippedMax = Math.max(flippedMax, Math.max(flippedDx, dyz));
+            // The running maxima never decrease, so once both reach the bound we are done.
+            if (originalMax >= bound && flippedMax >= bound) {
+                break;
+            }
+        }
+        return Math.min(originalMax, flippedMax);
+    }
+
+    /**
+     * Returns the weighted mean of absolute differences between {@code sample} and {@code query},
+     * taking the smaller of the original and X-mirrored query and stopping early against
+     * {@code bound} like {@link #maxDistance(int, float[], float, float, float, float)}.
+     */
+    float meanDistance(int sample, float[] query, float wx, float wy, float wz, float bound) {
+        int offset = sample * EMBEDDING_LENGTH;
+        float originalSum = 0;
+        float flippedSum = 0;
+        for (int i = 0; i < EMBEDDING_LENGTH; i += NUM_DIMS) {
+            float sampleX = embeddings[offset + i];
+            float dx = Math.abs((sampleX - query[i]) * wx);
+            float flippedDx = Math.abs((sampleX + query[i]) * wx);
+            float dy = Math.abs((embeddings[offset + i + 1] - query[i + 1]) * wy);
+            float dz = Math.abs((embeddings[offset + i + 2] - query[i + 2]) * wz);
+            originalSum += dx + dy + dz;
+            flippedSum += flippedDx + dy + dz;
+            // Partial sums only grow, so the final mean can't get back under the bound.
+            if (Math.min(originalSum, flippedSum) / MEAN_DIVISOR >= bound) {
+                break;
+            }
+        }
+        return Math.min(originalSum, flippedSum) / MEAN_DIVISOR;
+    }
+}
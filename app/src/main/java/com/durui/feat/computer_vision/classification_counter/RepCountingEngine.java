@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Classifies a stream of poses and counts reps, without anything Android in the way, so the same
+ * counting runs live in {@link PoseClassifierProcessor} and offline over recorded sessions.
+ *
+ * <p>Every frame goes through the k-NN {@link PoseClassifier}, {@link EMASmoothing} on the capture
+ * timestamp and one {@link RepetitionCounter} per counted class, and each new rep is reported to
+ * the {@link RepListener}. An engine keeps the state of one stream and is not thread safe, while
+ * the classifier may be shared by engines on different threads.
+ */
+public class RepCountingEngine {
+
+    /**
+     * Receives the reps counted, on the thread frames are processed on.
+     */
+    public interface RepListener {
+        /**
+         * Called when {@code className} reaches {@code reps} reps, on the frame captured at
+         * {@code timestampNanos}.
+         */
+        void onRep(String className, int reps, long timestampNanos);
+    }
+
+    // Classes that end a rep are named after their exercise with this suffix, e.g. "squats_down".
+    private static final String REP_CLASS_SUFFIX = "_down";
+
+    private final List<RepetitionCounter> repCounters;
+    private final EMASmoothing emaSmoothing = new EMASmoothing();
+    // Reused for the smoothed result of every frame.
+    private final ClassificationResult smoothedClassification = new ClassificationResult();
+    @Nullable
+    private RepListener repListener;
+    // Last rep counted, the class name is null before the first rep.
+    @Nullable
+    private String lastRepClassName;
+    private int lastReps;
+
+    public RepCountingEngine(String... repClassNames) {
+        List<RepetitionCounter> repCounters = new ArrayList<>(repClassNames.length);
+        for (String className : repClassNames) {
+            repCounters.add(new RepetitionCounter(className));
+        }
+        this.repCounters = Collections.unmodifiableList(repCounters);
+    }
+
+    /**
+     * Returns the classes of {@code classes} that reps are counted on, the ones named
+     * {@code <exercise>_down}.
+     */
+    public static String[] getRepClassNames(ClassDictionary classes) {
+        List<String> repClassNames = new ArrayList<>();
+        for (int classId = 0; classId < classes.size(); classId++) {
+            String className = classes.getClassName(classId);
+            if (className.endsWith(REP_CLASS_SUFFIX)) {
+                repClassNames.add(className);
+            }
+        }
+        return repClassNames.toArray(new String[0]);
+    }
+
+    public void setRepListener(@Nullable RepListener repListener) {
+        this.repListener = repListener;
+    }
+
+    /**
+     * Classifies, smooths and counts the frame captured at {@code timestampNanos}. {@code landmarks}
+     * are its {@link PoseEmbedding#NUM_LANDMARKS} landmarks packed as x, y, z triples, or null when
+     * no pose was found. Returns the smoothed classification, only valid until the next frame.
+     */
+    public ClassificationResult process(
+            PoseClassifier classifier, @Nullable float[] landmarks, long timestampNanos) {
+        ClassificationResult classification = landmarks != null
+                ? classifier.classify(landmarks)
+                : new ClassificationResult();
+        ClassificationResult smoothed = smooth(classification, timestampNanos);
+        if (landmarks != null) {
+            count(smoothed, timestampNanos);
+        }
+        return smoothed;
+    }
+
+    /**
+     * Smooths the classification of the frame captured at {@code timestampNanos}. Frames without a
+     * pose are smoothed too, as frames where no class was seen. Returns the smoothed classification,
+     * only valid until the next frame.
+     */
+    public ClassificationResult smooth(ClassificationResult classification, long timestampNanos) {
+        return emaSmoothing.getSmoothedResult(
+                classification, smoothedClassification, timestampNanos);
+    }
+
+    /**
+     * Feeds a smoothed classification to the rep counters and returns the reps of the counted
+     * class, see {@link #getLastRepClassName()}. Only frames with a pose should be counted.
+     */
+    public int count(ClassificationResult smoothed, long timestampNanos) {
+        for (RepetitionCounter repCounter : repCounters) {
+            int repsBefore = repCounter.getNumRepeats();
+            int repsAfter = repCounter.addClassificationResult(smoothed);
+            if (repsAfter > repsBefore) {
+                lastRepClassName = repCounter.getClassName();
+                lastReps = repsAfter;
+                if (repListener != null) {
+                    repListener.onRep(lastRepClassName, repsAfter, timestampNanos);
+                }
+                break;
+            }
+        }
+        return lastReps;
+    }
+
+    /**
+     * Returns the class of the last rep counted, or null before the first rep.
+     */
+    @Nullable
+    public String getLastRepClassName() {
+        return lastRepClassName;
+    }
+
+    public int getLastReps() {
+        return lastReps;
+    }
+
+    public List<RepetitionCounter> getRepCounters() {
+        return repCounters;
+    }
+}
@@ -31,6 +31,9 @@ public class RepetitionCounter {
 
     private int numRepeats;
     private boolean poseEntered;
+    // Id of the class in the dictionary of the last result, looked up when the dictionary changes.
+    private ClassDictionary classes;
+    private int classId = ClassDictionary.NO_CLASS_ID;
 
     public RepetitionCounter(String className) {//durui 动作计数器
         this(className, DEFAULT_ENTER_THRESHOLD, DEFAULT_EXIT_THRESHOLD);
@@ -51,7 +54,12 @@ public class RepetitionCounter {
      * @return number of reps.
      */
     public int addClassificationResult(ClassificationResult classificationResult) {
-        float poseConfidence = classificationResult.getClassConfidence(className);
+        if (classificationResult.getClassDictionary() != classes) {
+            classes = classificationResult.getClassDictionary();
+            classId = classes.getClassId(className);
+        }
+        float poseConfidence = classId == ClassDictionary.NO_CLASS_ID
+                ? 0 : classificationResult.getClassConfidence(classId);
 
         if (!poseEntered) {
             poseEntered = poseConfidence > enterThreshold;
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import java.util.Random;
+
+/**
+ * Vantage-point tree over the embeddings of a {@link PoseSampleStore} under the weighted max
+ * (Chebyshev) distance, used by {@link PoseClassifier} for its first, max-distance top-K stage.
+ * https://en.wikipedia.org/wiki/Vantage-point_tree
+ *
+ * <p>The tree is implicit: samples are permuted so every node owns a contiguous range of
+ * {@code order}. A node stores its vantage sample at the first position of its range, followed by
+ * the inner half (distance to the vantage point at most the node radius) and the outer half (at
+ * least the radius). Small ranges are scanned linearly.
+ *
+ * <p>Queries are mirror invariant like the rest of the classifier: a sample's distance is the
+ * smaller of its distances to the query and to the query flipped on X. A subtree is skipped only
+ * if the triangle inequality rules it out for both orientations, so the search returns the same
+ * top-K set as a linear scan.
+ */
+public class VantagePointTree {
+    private static final int LEAF_SIZE = 16;
+    // Distances are computed in float, so the triangle inequality only holds up to rounding. Prune
+    // a little less eagerly than exact arithmetic would allow to never drop a true neighbour.
+    private static final float PRUNING_SLACK = 1e-4f;
+    // Fixed so the tree layout, and hence tie-breaking between equal distances, is reproducible.
+    private static final long VANTAGE_POINT_SEED = 42;
+
+    private final PoseSampleStore sampleStore;
+    private final float weightX;
+    private final float weightY;
+    private final float weightZ;
+    // Sample ids in tree order.
+    private final int[] order;
+    // Radius of the node whose vantage sample sits at the same position in {@code order}.
+    private final float[] radius;
+
+    public VantagePointTree(PoseSampleStore sampleStore, float weightX, float weightY, float weightZ) {
+        this(sampleStore, allSamples(sampleStore.size()), weightX, weightY, weightZ);
+    }
+
+    /**
+     * Indexes only the given samples of the store, e.g. one shard of it. The array is taken over.
+     */
+    public VantagePointTree(PoseSampleStore sampleStore, int[] samples,
+                            float weightX, float weightY, float weightZ) {
+        this.sampleStore = sampleStore;
+        this.weightX = weightX;
+        this.weightY = weightY;
+        this.weightZ = weightZ;
+        order = samples;
+        radius = new float[samples.length];
+        build(0, samples.length, new float[samples.length], new Random(VANTAGE_POINT_SEED));
+    }
+
+    private static int[] allSamples(int size) {
+        int[] samples = new int[size];
+        for (int i = 0; i < size; i++) {
+            samples[i] = i;
+        }
+        return samples;
+    }
+
+    private void build(int from, int to, float[] distances, Random random) {
+        if (to - from <= LEAF_SIZE) {
+            return;
+        }
+        swap(from, from + random.nextInt(to - from));
+        int vantage = order[from];
+        float[] embeddings = sampleStore.getEmbeddings();
+        int vantageOffset = vantage * PoseSampleStore.EMBEDDING_LENGTH;
+        for (int i = from + 1; i < to; i++) {
+            distances[i] = sampleStore.unmirroredMaxDistance(
+                    order[i], embeddings, vantageOffset, weightX, weightY, weightZ);
+        }
+        int median = (from + 1 + to) >>> 1;
+        select(from + 1, to - 1, median, distances);
+        radius[from] = distances[median];
+        build(from + 1, median, distances, random);
+        build(median, to, distances, random);
+    }
+
+    // Quickselect on [left, right] so that position k holds the k-th smallest distance, smaller or
+    // equal ones before it and greater or equal ones after it.
+    private void select(int left, int right, int k, float[] distances) {
+        while (left < right) {
+            float pivot = distances[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (distances[i] < pivot) {
+                    i++;
+                }
+                while (distances[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i, j, distances);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        int sample = order[i];
+        order[i] = order[j];
+        order[j] = sample;
+    }
+
+    private void swap(int i, int j, float[] distances) {
+        swap(i, j);
+        float distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+
+    /**
+     * Offers the samples closest to {@code query} by max distance to {@code topK}, pruning every
+     * subtree that can't beat its current worst distance.
+     *
+     * @param flippedQuery {@code query} with every X negated.
+     */
+    public void searchMaxDistanceTopK(float[] query, float[] flippedQuery, NearestSamples topK) {
+        search(0, order.length, query, flippedQuery, topK);
+    }
+
+    private void search(int from, int to, float[] query, float[] flippedQuery, NearestSamples topK) {
+        if (to - from <= LEAF_SIZE) {
+            for (int i = from; i < to; i++) {
+                topK.offer(order[i], sampleStore.maxDistance(
+                        order[i], query, weightX, weightY, weightZ, topK.worstDistance()));
+            }
+            return;
+        }
+
+        // Both orientations are needed exactly to bound the subtrees, so no early abandoning here.
+        int vantage = order[from];
+        float originalDistance =
+                sampleStore.unmirroredMaxDistance(vantage, query, 0, weightX, weightY, weightZ);
+        float flippedDistance = sampleStore.unmirroredMaxDistance(
+                vantage, flippedQuery, 0, weightX, weightY, weightZ);
+        float distance = Math.min(originalDistance, flippedDistance);
+        topK.offer(vantage, distance);
+
+        float nodeRadius = radius[from];
+        int median = (from + 1 + to) >>> 1;
+        // Lower bounds of the distance to any sample inside and outside the radius, the closer of
+        // the two orientations winning.
+        float innerBound = distance - nodeRadius;
+        float outerBound = nodeRadius - Math.max(originalDistance, flippedDistance);
+        float slack = PRUNING_SLACK * (distance + nodeRadius);
+        if (distance <= nodeRadius) {
+            search(from + 1, median, query, flippedQuery, topK);
+            if (outerBound <= topK.worstDistance() + slack) {
+                search(median, to, query, flippedQuery, topK);
+            }
+        } else {
+            search(median, to, query, flippedQuery, topK);
+            if (innerBound <= topK.worstDistance() + slack) {
+                search(from + 1, median, query, flippedQuery, topK);
+            }
+        }
+    }
+}
@@ -20,31 +20,40 @@ import android.content.Context;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import com.durui.feat.computer_vision.classification_counter.LandmarkSessionRecorder;
 import com.durui.feat.computer_vision.classification_counter.PoseClassifierProcessor;
+import com.durui.feat.computer_vision.classification_counter.PoseResult;
+import com.durui.feat.computer_vision.preference.PreferenceUtils;
 import com.durui.feat.computer_vision.vision_base.GraphicOverlay;
 import com.durui.feat.computer_vision.vision_base.VisionProcessorBase;
-import com.google.android.gms.tasks.Continuation;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.android.odml.image.MlImage;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.mlkit.vision.common.InputImage;
-import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseDetection;
 import com.google.mlkit.vision.pose.PoseDetector;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 
 /**
  * A processor to run pose detector.
  */
 public class PoseDetectorProcessor
-        extends VisionProcessorBase<PoseDetectorProcessor.PoseWithClassification> {//durui 分析成什么视觉信息：Pose + Class
+        extends VisionProcessorBase<PoseResult> {//durui 分析成什么视觉信息：Pose + Class
     // 字符常量
     private static final String TAG = "PoseDetectorProcessor";
+    // Results that can be on their way through the pipeline at once, with some slack.
+    private static final int RESULT_POOL_SIZE = 8;
+    // Directory of the app's external files the landmarks of live sessions are recorded in.
+    private static final String SESSIONS_DIR = "sessions";
 
     //图像分析
     private final PoseDetector poseDetector;
@@ -56,8 +65,16 @@ public class PoseDetectorProcessor
     private final boolean runClassification;
     private final boolean isStreamMode;
     private final Context context;
-    private final Executor classificationExecutor;
     private PoseClassifierProcessor poseClassifierProcessor;
+    // Pose graphics reused round robin by onSuccess(), one per frame the overlay can hold.
+    private final PoseGraphic[] poseGraphics = new PoseGraphic[GraphicOverlay.MAX_FRAMES_IN_USE];
+    private int nextPoseGraphic;
+    private final PoseResult.Pool resultPool = new PoseResult.Pool(RESULT_POOL_SIZE);
+    // Landmark recording, opened on the first frame and closed by stop().
+    private final Object sessionLock = new Object();
+    private boolean recordSession;
+    @Nullable
+    private LandmarkSessionRecorder sessionRecorder;
 
     //durui 构造函数
     public PoseDetectorProcessor(
@@ -76,63 +93,85 @@ public class PoseDetectorProcessor
         this.runClassification = runClassification;
         this.isStreamMode = isStreamMode;
         this.context = context;
-        classificationExecutor = Executors.newSingleThreadExecutor();//durui 多线程与并发
+        this.recordSession = isStreamMode && PreferenceUtils.shouldPoseDetectionRecordSession(context);
     }
 
     @Override
-    protected Task<PoseWithClassification> detectInImage(InputImage image) {
+    protected Task<PoseResult> detectInImage(InputImage image) {
         //durui 将图像输入模型，获取预测结果（33个关键点）
         return poseDetector.process(image)
-                .continueWith(classificationExecutor, new Continuation<Pose, PoseWithClassification>() {
-                    @Override
-                    public PoseWithClassification then(@NonNull Task<Pose> task) throws Exception {
-                        Pose pose = task.getResult();
-                        List<String> classificationResult = new ArrayList<>();
-                        //durui 利用上述预测结果，继续获取分类结果（姿态）
-                        if (runClassification) {
-                            if (poseClassifierProcessor == null) {
-                                poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                            }
-                            classificationResult = poseClassifierProcessor.getPoseResult(pose);
-                        }
-                        return new PoseWithClassification(pose, classificationResult);
-                    }
-                });
+                .onSuccessTask(MoreExecutors.directExecutor(),
+                        pose -> Tasks.forResult(resultPool.acquire().setPose(pose)));
     }
 
     @Override
-    protected Task<PoseWithClassification> detectInImage(MlImage image) {
+    protected Task<PoseResult> detectInImage(MlImage image) {
         //durui 怎么样处理视觉信息：poseDetector + poseClassifierProcessor
         return poseDetector.process(image)
-                .continueWith(classificationExecutor, new Continuation<Pose, PoseWithClassification>() {
-                    @Override
-                    public PoseWithClassification then(@NonNull Task<Pose> task) throws Exception {
-                        Pose pose = task.getResult();//durui 33个关键点
-                        List<String> classificationResult = new ArrayList<>();
-                        if (runClassification) {
-                            if (poseClassifierProcessor == null) {
-                                poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
-                            }
-                            classificationResult = poseClassifierProcessor.getPoseResult(pose);//durui k-NN
-                        }
-                        return new PoseWithClassification(pose, classificationResult);//durui Pose + Class
-                    }
-                });
+                .onSuccessTask(MoreExecutors.directExecutor(),
+                        pose -> Tasks.forResult(resultPool.acquire().setPose(pose)));//durui 33个关键点
+    }
+
+    @Override
+    protected PoseResult classify(@NonNull PoseResult poseResult, long frameTimestampNanos) {
+        //durui 利用上述预测结果，继续获取分类结果（姿态），在独立的分类线程上与下一帧的检测并行
+        poseResult.setTimestampNanos(frameTimestampNanos);
+        recordLandmarks(poseResult);
+        if (!runClassification) {
+            return poseResult;
+        }
+        if (poseClassifierProcessor == null) {
+            poseClassifierProcessor = new PoseClassifierProcessor(context, isStreamMode);
+            poseClassifierProcessor.setSmoothingLatencyHistogram(getLatencies().smoothing);
+        }
+        poseClassifierProcessor.getPoseResult(poseResult);//durui k-NN, Pose + Class
+        return poseResult;
+    }
+
+    // Only encodes the frame, the recorder writes it out on its own thread.
+    private void recordLandmarks(PoseResult poseResult) {
+        synchronized (sessionLock) {
+            if (!recordSession) {
+                return;
+            }
+            if (sessionRecorder == null) {
+                File sessionsDir = context.getExternalFilesDir(SESSIONS_DIR);
+                if (sessionsDir == null) {
+                    Log.e(TAG, "No storage to record the session in");
+                    recordSession = false;
+                    return;
+                }
+                String name = "session_"
+                        + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date())
+                        + LandmarkSessionRecorder.FILE_SUFFIX;
+                try {
+                    sessionRecorder = new LandmarkSessionRecorder(new File(sessionsDir, name));
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to record the session", e);
+                    recordSession = false;
+                    return;
+                }
+            }
+            sessionRecorder.record(poseResult);
+        }
     }
 
     @Override
     protected void onSuccess(
-            @NonNull PoseWithClassification poseWithClassification,
+            @NonNull PoseResult poseResult,
             @NonNull GraphicOverlay graphicOverlay) {
         //DURUI 关键点可视化
-        graphicOverlay.add(
-                new PoseGraphic(
-                        graphicOverlay,
-                        poseWithClassification.pose,
-                        showInFrameLikelihood,
-                        visualizeZ,
-                        rescaleZForVisualization,
-                        poseWithClassification.classificationResult));
+        PoseGraphic poseGraphic = poseGraphics[nextPoseGraphic];
+        if (poseGraphic == null) {
+            poseGraphic = new PoseGraphic(
+                    graphicOverlay, showInFrameLikelihood, visualizeZ, rescaleZForVisualization);
+            poseGraphics[nextPoseGraphic] = poseGraphic;
+        }
+        nextPoseGraphic = (nextPoseGraphic + 1) % poseGraphics.length;
+        poseGraphic.update(poseResult);
+        graphicOverlay.add(poseGraphic);
+        // The graphic keeps its own copy.
+        resultPool.release(poseResult);
     }
 
     @Override
@@ -146,32 +185,18 @@ public class PoseDetectorProcessor
         return true;
     }
 
-    /**
-     * Internal class to hold Pose and classification results.
-     * durui 处理成什么视觉信息
-     */
-    protected static class PoseWithClassification {
-        private final Pose pose;
-        private final List<String> classificationResult;
-
-        public PoseWithClassification(Pose pose, List<String> classificationResult) {
-            this.pose = pose;
-            this.classificationResult = classificationResult;
-        }
-
-        public Pose getPose() {
-            return pose;
-        }
-
-        public List<String> getClassificationResult() {
-            return classificationResult;
-        }
-
-    }
-
     @Override
     public void stop() {
         super.stop();
         poseDetector.close();
+        synchronized (sessionLock) {
+            recordSession = false;
+            if (sessionRecorder != null) {
+                sessionRecorder.close();
+                Log.i(TAG, "Recorded " + sessionRecorder.getRecordedFrameCount() + " frames, dropped "
+                        + sessionRecorder.getDroppedFrameCount());
+                sessionRecorder = null;
+            }
+        }
     }
 }
@@ -22,20 +22,23 @@ import static java.lang.Math.min;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Typeface;
 
+import com.durui.feat.computer_vision.classification_counter.PoseResult;
 import com.durui.feat.computer_vision.vision_base.GraphicOverlay;
 import com.durui.feat.computer_vision.vision_base.GraphicOverlay.Graphic;
+import com.durui.feat.computer_vision.vision_base.generic.TextBuffer;
+import com.durui.feat.computer_vision.vision_base.generic.Typefaces;
 import com.google.common.primitives.Ints;
-import com.google.mlkit.vision.common.PointF3D;
-import com.google.mlkit.vision.pose.Pose;
 import com.google.mlkit.vision.pose.PoseLandmark;
 
-import java.util.List;
-import java.util.Locale;
-
 /**
  * Draw the detected pose in preview.
+ *
+ * <p>Instances are reused from frame to frame through {@link #update(PoseResult)}: the landmarks
+ * are copied into primitive arrays, the skeleton comes from fixed connection tables and each side
+ * of it is drawn with one batched call, so drawing a frame doesn't allocate. The classification
+ * text is only formatted again when the values it shows change. Paints and the typeface are
+ * shared by all instances and only used on the drawing thread.
  */
 public class PoseGraphic extends Graphic {//durui 可视化模块
 
@@ -43,195 +46,252 @@ public class PoseGraphic extends Graphic {//durui 可视化模块
     private static final float IN_FRAME_LIKELIHOOD_TEXT_SIZE = 30.0f;
     private static final float STROKE_WIDTH = 20.0f;
     private static final float POSE_CLASSIFICATION_TEXT_SIZE = 60.0f;
+    private static final int CLASSIFICATION_TEXT_COLOR = Color.rgb(255, 241, 255);
+    private static final String CLASSIFICATION_TEXT_FACE = "font/jet_brains_mono.ttf";
+
+    /**
+     * 人体33个关键点坐标以及人体骨架连接形式
+     * 区分归一化坐标、像素坐标
+     * 物理（米）坐标：真实物理坐标的原点位于左右髋关节连线的中点（肚脐附近）
+     */
+    private static final int NUM_LANDMARKS = PoseResult.NUM_LANDMARKS;
+
+    // Face and the lines across the body, as pairs of landmark types.
+    private static final int[] CENTER_CONNECTIONS = {
+            PoseLandmark.NOSE, PoseLandmark.LEFT_EYE_INNER,
+            PoseLandmark.LEFT_EYE_INNER, PoseLandmark.LEFT_EYE,
+            PoseLandmark.LEFT_EYE, PoseLandmark.LEFT_EYE_OUTER,
+            PoseLandmark.LEFT_EYE_OUTER, PoseLandmark.LEFT_EAR,
+            PoseLandmark.NOSE, PoseLandmark.RIGHT_EYE_INNER,
+            PoseLandmark.RIGHT_EYE_INNER, PoseLandmark.RIGHT_EYE,
+            PoseLandmark.RIGHT_EYE, PoseLandmark.RIGHT_EYE_OUTER,
+            PoseLandmark.RIGHT_EYE_OUTER, PoseLandmark.RIGHT_EAR,
+            PoseLandmark.LEFT_MOUTH, PoseLandmark.RIGHT_MOUTH,
+            PoseLandmark.LEFT_SHOULDER, PoseLandmark.RIGHT_SHOULDER,
+            PoseLandmark.LEFT_HIP, PoseLandmark.RIGHT_HIP,
+    };
+    private static final int[] LEFT_CONNECTIONS = {
+            PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_ELBOW,
+            PoseLandmark.LEFT_ELBOW, PoseLandmark.LEFT_WRIST,
+            PoseLandmark.LEFT_SHOULDER, PoseLandmark.LEFT_HIP,
+            PoseLandmark.LEFT_HIP, PoseLandmark.LEFT_KNEE,
+            PoseLandmark.LEFT_KNEE, PoseLandmark.LEFT_ANKLE,
+            PoseLandmark.LEFT_WRIST, PoseLandmark.LEFT_THUMB,
+            PoseLandmark.LEFT_WRIST, PoseLandmark.LEFT_PINKY,
+            PoseLandmark.LEFT_WRIST, PoseLandmark.LEFT_INDEX,
+            PoseLandmark.LEFT_INDEX, PoseLandmark.LEFT_PINKY,
+            PoseLandmark.LEFT_ANKLE, PoseLandmark.LEFT_HEEL,
+            PoseLandmark.LEFT_HEEL, PoseLandmark.LEFT_FOOT_INDEX,
+    };
+    private static final int[] RIGHT_CONNECTIONS = {
+            PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_ELBOW,
+            PoseLandmark.RIGHT_ELBOW, PoseLandmark.RIGHT_WRIST,
+            PoseLandmark.RIGHT_SHOULDER, PoseLandmark.RIGHT_HIP,
+            PoseLandmark.RIGHT_HIP, PoseLandmark.RIGHT_KNEE,
+            PoseLandmark.RIGHT_KNEE, PoseLandmark.RIGHT_ANKLE,
+            PoseLandmark.RIGHT_WRIST, PoseLandmark.RIGHT_THUMB,
+            PoseLandmark.RIGHT_WRIST, PoseLandmark.RIGHT_PINKY,
+            PoseLandmark.RIGHT_WRIST, PoseLandmark.RIGHT_INDEX,
+            PoseLandmark.RIGHT_INDEX, PoseLandmark.RIGHT_PINKY,
+            PoseLandmark.RIGHT_ANKLE, PoseLandmark.RIGHT_HEEL,
+            PoseLandmark.RIGHT_HEEL, PoseLandmark.RIGHT_FOOT_INDEX,
+    };
+
+    private static Paint classificationTextPaint;
+    private static Paint likelihoodTextPaint;
+    private static Paint dotPaint;
+    private static Paint centerPaint;
+    private static Paint leftPaint;
+    private static Paint rightPaint;
 
-    private final Pose pose;
     private final boolean showInFrameLikelihood;
     private final boolean visualizeZ;
     private final boolean rescaleZForVisualization;
-    private float zMin = Float.MAX_VALUE;
-    private float zMax = Float.MIN_VALUE;
 
-    private final List<String> poseClassification;
-    private final Paint classificationTextPaint;
-    private final Paint leftPaint;
-    private final Paint rightPaint;
-    private final Paint whitePaint;
+    // Landmarks of the current pose, x, y, z triples and likelihoods indexed by landmark type.
+    private final float[] positions = new float[NUM_LANDMARKS * 3];
+    private final float[] inFrameLikelihoods = new float[NUM_LANDMARKS];
+    private boolean hasLandmarks;
+    private float zMin;
+    private float zMax;
+
+    // Classification text, lines from top to bottom, with the values it was formatted from.
+    private final TextBuffer[] classificationLines = {new TextBuffer(), new TextBuffer()};
+    private int numClassificationLines;
+    private boolean showReps;
+    private String repClassName;
+    private int reps = -1;
+    private String className;
+    // Confidence in hundredths, as it is shown.
+    private int confidenceHundredths = -1;
+
+    // Scratch buffers for the drawing thread.
+    private final float[] screenPoints = new float[NUM_LANDMARKS * 2];
+    private final float[] lines = new float[LEFT_CONNECTIONS.length * 2];
+    private final TextBuffer text = new TextBuffer();
 
     public PoseGraphic(
             GraphicOverlay overlay,
-            Pose pose,
             boolean showInFrameLikelihood,
             boolean visualizeZ,
-            boolean rescaleZForVisualization,
-            List<String> poseClassification) {
+            boolean rescaleZForVisualization) {
         super(overlay);
-        this.pose = pose;
         this.showInFrameLikelihood = showInFrameLikelihood;
         this.visualizeZ = visualizeZ;
         this.rescaleZForVisualization = rescaleZForVisualization;
+        initPaints(overlay);
+    }
 
-        //TODO
-        this.poseClassification = poseClassification;
+    private static synchronized void initPaints(GraphicOverlay overlay) {
+        if (classificationTextPaint != null) {
+            return;
+        }
         classificationTextPaint = new Paint();
-        classificationTextPaint.setColor(Color.rgb(255, 241, 255));
-        Typeface typeFace = Typeface.createFromAsset(getApplicationContext().getAssets(), "font/jet_brains_mono.ttf");
-        classificationTextPaint.setTypeface(typeFace);
+        classificationTextPaint.setColor(CLASSIFICATION_TEXT_COLOR);
+        classificationTextPaint.setTypeface(
+                Typefaces.getFromAsset(overlay.getContext(), CLASSIFICATION_TEXT_FACE));
         classificationTextPaint.setTextSize(POSE_CLASSIFICATION_TEXT_SIZE);
 
-        whitePaint = new Paint();
-        whitePaint.setStrokeWidth(STROKE_WIDTH);
-        whitePaint.setColor(Color.WHITE);
-        whitePaint.setTextSize(IN_FRAME_LIKELIHOOD_TEXT_SIZE);
+        likelihoodTextPaint = new Paint();
+        likelihoodTextPaint.setColor(Color.WHITE);
+        likelihoodTextPaint.setTextSize(IN_FRAME_LIKELIHOOD_TEXT_SIZE);
+        // Round points as wide as the dots.
+        dotPaint = new Paint();
+        dotPaint.setStrokeWidth(DOT_RADIUS * 2);
+        dotPaint.setStrokeCap(Paint.Cap.ROUND);
+        centerPaint = new Paint();
+        centerPaint.setStrokeWidth(STROKE_WIDTH);
         leftPaint = new Paint();
         leftPaint.setStrokeWidth(STROKE_WIDTH);
-        leftPaint.setColor(Color.GREEN);
         rightPaint = new Paint();
         rightPaint.setStrokeWidth(STROKE_WIDTH);
-        rightPaint.setColor(Color.YELLOW);
+    }
+
+    /**
+     * Replaces the pose drawn by this graphic, copying it out of {@code result}.
+     */
+    public synchronized void update(PoseResult result) {
+        hasLandmarks = result.hasPose();
+        zMin = Float.MAX_VALUE;
+        zMax = -Float.MAX_VALUE;
+        if (hasLandmarks) {
+            System.arraycopy(result.getLandmarks(), 0, positions, 0, positions.length);
+            for (int type = 0; type < NUM_LANDMARKS; type++) {
+                inFrameLikelihoods[type] = result.getInFrameLikelihood(type);
+                zMin = min(zMin, positions[type * 3 + 2]);
+                zMax = max(zMax, positions[type * 3 + 2]);
+            }
+        }
+        updateClassificationText(result);
+    }
+
+    private void updateClassificationText(PoseResult result) {
+        String newClassName = result.hasClassification() ? result.getClassName() : null;
+        int newConfidenceHundredths =
+                newClassName != null ? Math.round(result.getConfidence() * 100) : -1;
+        if (showReps == result.showReps()
+                && repClassName == result.getRepClassName()
+                && reps == result.getReps()
+                && className == newClassName
+                && confidenceHundredths == newConfidenceHundredths) {
+            return;
+        }
+        showReps = result.showReps();
+        repClassName = result.getRepClassName();
+        reps = result.getReps();
+        className = newClassName;
+        confidenceHundredths = newConfidenceHundredths;
+
+        numClassificationLines = 0;
+        if (showReps) {
+            // Kept as a blank line before the first rep.
+            TextBuffer line = classificationLines[numClassificationLines++].clear();
+            if (repClassName != null) {
+                line.append(repClassName).append(" : ").append(reps).append(" reps");
+            }
+        }
+        if (className != null) {
+            classificationLines[numClassificationLines++].clear()
+                    .append(className)
+                    .append(" : ")
+                    .append(confidenceHundredths / 100)
+                    .append(confidenceHundredths % 100 < 10 ? ".0" : ".")
+                    .append(confidenceHundredths % 100)
+                    .append(" confidence");
+        }
     }
 
     @Override
-    public void draw(Canvas canvas) {
-        List<PoseLandmark> landmarks = pose.getAllPoseLandmarks();
-        if (landmarks.isEmpty()) {
+    public synchronized void draw(Canvas canvas) {
+        if (!hasLandmarks) {
             return;
         }
 
         // Draw pose classification text.
         float classificationX = POSE_CLASSIFICATION_TEXT_SIZE * 0.5f;
-        for (int i = 0; i < poseClassification.size(); i++) {
+        for (int i = 0; i < numClassificationLines; i++) {
             float classificationY = (canvas.getHeight() - POSE_CLASSIFICATION_TEXT_SIZE * 1.5f
-                    * (poseClassification.size() - i));
-            canvas.drawText(
-                    poseClassification.get(i),
+                    * (numClassificationLines - i));
+            classificationLines[i].draw(
+                    canvas,
                     classificationX,
                     classificationY,
                     classificationTextPaint);
         }
 
+        for (int type = 0; type < NUM_LANDMARKS; type++) {
+            screenPoints[type * 2] = translateX(positions[type * 3]);
+            screenPoints[type * 2 + 1] = translateY(positions[type * 3 + 1]);
+        }
+
         // Draw all the points
-        for (PoseLandmark landmark : landmarks) {
-            drawPoint(canvas, landmark, whitePaint);
-            if (visualizeZ && rescaleZForVisualization) {
-                zMin = min(zMin, landmark.getPosition3D().getZ());
-                zMax = max(zMax, landmark.getPosition3D().getZ());
+        dotPaint.setColor(Color.WHITE);
+        if (visualizeZ) {
+            for (int type = 0; type < NUM_LANDMARKS; type++) {
+                maybeUpdatePaintColor(dotPaint, canvas, positions[type * 3 + 2]);
+                canvas.drawCircle(screenPoints[type * 2], screenPoints[type * 2 + 1], DOT_RADIUS, dotPaint);
             }
+        } else {
+            canvas.drawPoints(screenPoints, dotPaint);
         }
 
-        /**
-         * 人体33个关键点坐标以及人体骨架连接形式
-         * 区分归一化坐标、像素坐标
-         * 物理（米）坐标：真实物理坐标的原点位于左右髋关节连线的中点（肚脐附近）
-         */
-
-        PoseLandmark nose = pose.getPoseLandmark(PoseLandmark.NOSE);
-        PoseLandmark lefyEyeInner = pose.getPoseLandmark(PoseLandmark.LEFT_EYE_INNER);
-        PoseLandmark lefyEye = pose.getPoseLandmark(PoseLandmark.LEFT_EYE);
-        PoseLandmark leftEyeOuter = pose.getPoseLandmark(PoseLandmark.LEFT_EYE_OUTER);
-        PoseLandmark rightEyeInner = pose.getPoseLandmark(PoseLandmark.RIGHT_EYE_INNER);
-        PoseLandmark rightEye = pose.getPoseLandmark(PoseLandmark.RIGHT_EYE);
-        PoseLandmark rightEyeOuter = pose.getPoseLandmark(PoseLandmark.RIGHT_EYE_OUTER);
-        PoseLandmark leftEar = pose.getPoseLandmark(PoseLandmark.LEFT_EAR);
-        PoseLandmark rightEar = pose.getPoseLandmark(PoseLandmark.RIGHT_EAR);
-        PoseLandmark leftMouth = pose.getPoseLandmark(PoseLandmark.LEFT_MOUTH);
-        PoseLandmark rightMouth = pose.getPoseLandmark(PoseLandmark.RIGHT_MOUTH);
-
-        PoseLandmark leftShoulder = pose.getPoseLandmark(PoseLandmark.LEFT_SHOULDER);
-        PoseLandmark rightShoulder = pose.getPoseLandmark(PoseLandmark.RIGHT_SHOULDER);
-        PoseLandmark leftElbow = pose.getPoseLandmark(PoseLandmark.LEFT_ELBOW);
-        PoseLandmark rightElbow = pose.getPoseLandmark(PoseLandmark.RIGHT_ELBOW);
-        PoseLandmark leftWrist = pose.getPoseLandmark(PoseLandmark.LEFT_WRIST);
-        PoseLandmark rightWrist = pose.getPoseLandmark(PoseLandmark.RIGHT_WRIST);
-        PoseLandmark leftHip = pose.getPoseLandmark(PoseLandmark.LEFT_HIP);
-        PoseLandmark rightHip = pose.getPoseLandmark(PoseLandmark.RIGHT_HIP);
-        PoseLandmark leftKnee = pose.getPoseLandmark(PoseLandmark.LEFT_KNEE);
-        PoseLandmark rightKnee = pose.getPoseLandmark(PoseLandmark.RIGHT_KNEE);
-        PoseLandmark leftAnkle = pose.getPoseLandmark(PoseLandmark.LEFT_ANKLE);
-        PoseLandmark rightAnkle = pose.getPoseLandmark(PoseLandmark.RIGHT_ANKLE);
-
-        PoseLandmark leftPinky = pose.getPoseLandmark(PoseLandmark.LEFT_PINKY);
-        PoseLandmark rightPinky = pose.getPoseLandmark(PoseLandmark.RIGHT_PINKY);
-        PoseLandmark leftIndex = pose.getPoseLandmark(PoseLandmark.LEFT_INDEX);
-        PoseLandmark rightIndex = pose.getPoseLandmark(PoseLandmark.RIGHT_INDEX);
-        PoseLandmark leftThumb = pose.getPoseLandmark(PoseLandmark.LEFT_THUMB);
-        PoseLandmark rightThumb = pose.getPoseLandmark(PoseLandmark.RIGHT_THUMB);
-        PoseLandmark leftHeel = pose.getPoseLandmark(PoseLandmark.LEFT_HEEL);
-        PoseLandmark rightHeel = pose.getPoseLandmark(PoseLandmark.RIGHT_HEEL);
-        PoseLandmark leftFootIndex = pose.getPoseLandmark(PoseLandmark.LEFT_FOOT_INDEX);
-        PoseLandmark rightFootIndex = pose.getPoseLandmark(PoseLandmark.RIGHT_FOOT_INDEX);
-
-        // Face
-        drawLine(canvas, nose, lefyEyeInner, whitePaint);
-        drawLine(canvas, lefyEyeInner, lefyEye, whitePaint);
-        drawLine(canvas, lefyEye, leftEyeOuter, whitePaint);
-        drawLine(canvas, leftEyeOuter, leftEar, whitePaint);
-        drawLine(canvas, nose, rightEyeInner, whitePaint);
-        drawLine(canvas, rightEyeInner, rightEye, whitePaint);
-        drawLine(canvas, rightEye, rightEyeOuter, whitePaint);
-        drawLine(canvas, rightEyeOuter, rightEar, whitePaint);
-        drawLine(canvas, leftMouth, rightMouth, whitePaint);
-
-        drawLine(canvas, leftShoulder, rightShoulder, whitePaint);
-        drawLine(canvas, leftHip, rightHip, whitePaint);
-
-        // Left body
-        drawLine(canvas, leftShoulder, leftElbow, leftPaint);
-        drawLine(canvas, leftElbow, leftWrist, leftPaint);
-        drawLine(canvas, leftShoulder, leftHip, leftPaint);
-        drawLine(canvas, leftHip, leftKnee, leftPaint);
-        drawLine(canvas, leftKnee, leftAnkle, leftPaint);
-        drawLine(canvas, leftWrist, leftThumb, leftPaint);
-        drawLine(canvas, leftWrist, leftPinky, leftPaint);
-        drawLine(canvas, leftWrist, leftIndex, leftPaint);
-        drawLine(canvas, leftIndex, leftPinky, leftPaint);
-        drawLine(canvas, leftAnkle, leftHeel, leftPaint);
-        drawLine(canvas, leftHeel, leftFootIndex, leftPaint);
-
-        // Right body
-        drawLine(canvas, rightShoulder, rightElbow, rightPaint);
-        drawLine(canvas, rightElbow, rightWrist, rightPaint);
-        drawLine(canvas, rightShoulder, rightHip, rightPaint);
-        drawLine(canvas, rightHip, rightKnee, rightPaint);
-        drawLine(canvas, rightKnee, rightAnkle, rightPaint);
-        drawLine(canvas, rightWrist, rightThumb, rightPaint);
-        drawLine(canvas, rightWrist, rightPinky, rightPaint);
-        drawLine(canvas, rightWrist, rightIndex, rightPaint);
-        drawLine(canvas, rightIndex, rightPinky, rightPaint);
-        drawLine(canvas, rightAnkle, rightHeel, rightPaint);
-        drawLine(canvas, rightHeel, rightFootIndex, rightPaint);
+        drawConnections(canvas, CENTER_CONNECTIONS, centerPaint, Color.WHITE);
+        drawConnections(canvas, LEFT_CONNECTIONS, leftPaint, Color.GREEN);
+        drawConnections(canvas, RIGHT_CONNECTIONS, rightPaint, Color.YELLOW);
 
         // Draw inFrameLikelihood for all points durui 置信度数值
         if (showInFrameLikelihood) {
-            for (PoseLandmark landmark : landmarks) {
-                canvas.drawText(
-                        String.format(Locale.US, "%.2f", landmark.getInFrameLikelihood()),
-                        translateX(landmark.getPosition().x),
-                        translateY(landmark.getPosition().y),
-                        whitePaint);
+            for (int type = 0; type < NUM_LANDMARKS; type++) {
+                text.clear().append(inFrameLikelihoods[type], 2)
+                        .draw(canvas, screenPoints[type * 2], screenPoints[type * 2 + 1], likelihoodTextPaint);
             }
         }
     }
 
-    void drawPoint(Canvas canvas, PoseLandmark landmark, Paint paint) {
-        PointF3D point = landmark.getPosition3D();
-        maybeUpdatePaintColor(paint, canvas, point.getZ());
-        canvas.drawCircle(translateX(point.getX()), translateY(point.getY()), DOT_RADIUS, paint);
-    }
-
-    void drawLine(Canvas canvas, PoseLandmark startLandmark, PoseLandmark endLandmark, Paint paint) {
-        PointF3D start = startLandmark.getPosition3D();
-        PointF3D end = endLandmark.getPosition3D();
-
-        // Gets average z for the current body line
-        float avgZInImagePixel = (start.getZ() + end.getZ()) / 2;
-        maybeUpdatePaintColor(paint, canvas, avgZInImagePixel);
-
-        canvas.drawLine(
-                translateX(start.getX()),
-                translateY(start.getY()),
-                translateX(end.getX()),
-                translateY(end.getY()),
-                paint);
+    private void drawConnections(Canvas canvas, int[] connections, Paint paint, int color) {
+        paint.setColor(color);
+        if (visualizeZ) {
+            // Every line gets its own color.
+            for (int i = 0; i < connections.length; i += 2) {
+                int start = connections[i];
+                int end = connections[i + 1];
+                // Gets average z for the current body line
+                float avgZInImagePixel = (positions[start * 3 + 2] + positions[end * 3 + 2]) / 2;
+                maybeUpdatePaintColor(paint, canvas, avgZInImagePixel);
+                canvas.drawLine(
+                        screenPoints[start * 2],
+                        screenPoints[start * 2 + 1],
+                        screenPoints[end * 2],
+                        screenPoints[end * 2 + 1],
+                        paint);
+            }
+            return;
+        }
+        for (int i = 0; i < connections.length; i++) {
+            lines[i * 2] = screenPoints[connections[i] * 2];
+            lines[i * 2 + 1] = screenPoints[connections[i] * 2 + 1];
+        }
+        canvas.drawLines(lines, 0, connections.length * 2, paint);
     }
 
     private void maybeUpdatePaintColor(Paint paint, Canvas canvas, float zInImagePixel) {
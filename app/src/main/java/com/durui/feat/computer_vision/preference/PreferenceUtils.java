@@ -24,6 +24,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import androidx.camera.core.CameraSelector;
 
+import com.durui.feat.computer_vision.vision_base.FrameAdmissionPolicy;
 import com.durui.feat.software_interface.ui.R;
 import com.google.common.base.Preconditions;
 import com.google.mlkit.vision.pose.PoseDetectorOptionsBase;
@@ -131,6 +132,24 @@ public class PreferenceUtils {
         return sharedPreferences.getBoolean(prefKey, false);
     }
 
+    public static boolean shouldPoseDetectionDetectExercise(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String prefKey = context.getString(R.string.pref_key_pose_detector_detect_exercise);
+        return sharedPreferences.getBoolean(prefKey, false);
+    }
+
+    public static boolean shouldPoseDetectionRecordSession(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String prefKey = context.getString(R.string.pref_key_pose_detector_record_session);
+        return sharedPreferences.getBoolean(prefKey, false);
+    }
+
+    public static FrameAdmissionPolicy getFrameAdmissionPolicy(Context context) {
+        int mode = getModeTypePreferenceValue(
+                context, R.string.pref_key_frame_admission, FrameAdmissionPolicy.MODE_KEEP_LATEST);
+        return FrameAdmissionPolicy.forMode(mode);
+    }
+
     /**
      * Mode type preference is backed by {@link android.preference.ListPreference} which only support
      * storing its entry value as string type, so we need to retrieve as string and then convert to
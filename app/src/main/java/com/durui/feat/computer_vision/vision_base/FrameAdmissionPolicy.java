@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base;
+
+/**
+ * Decides which camera frames {@link VisionProcessorBase} hands to the detector, so that frames
+ * arriving while inference is slow (e.g. under thermal throttling) are dropped instead of queued.
+ *
+ * <p>Every policy drops frames while another one is still being detected, which keeps the detector
+ * on the latest frame. On top of that, {@link #fixedRate(int)} caps the detection rate and
+ * {@link #adaptive()} paces frames by the measured detector latency.
+ */
+public abstract class FrameAdmissionPolicy {
+    // Mode values stored by the frame admission preference, positive values being a fixed rate.
+    public static final int MODE_KEEP_LATEST = 0;
+    public static final int MODE_ADAPTIVE = -1;
+
+    /**
+     * Returns the policy for a frame admission preference value.
+     */
+    public static FrameAdmissionPolicy forMode(int mode) {
+        if (mode == MODE_ADAPTIVE) {
+            return adaptive();
+        } else if (mode > 0) {
+            return fixedRate(mode);
+        }
+        return keepLatest();
+    }
+
+    /**
+     * Admits a frame whenever the detector is idle.
+     */
+    public static FrameAdmissionPolicy keepLatest() {
+        return new KeepLatest();
+    }
+
+    /**
+     * Admits at most {@code framesPerSecond} frames per second, and only while the detector is idle.
+     */
+    public static FrameAdmissionPolicy fixedRate(int framesPerSecond) {
+        return new FixedRate(framesPerSecond);
+    }
+
+    /**
+     * Spaces admitted frames by the smoothed detector latency plus some idle headroom, so the
+     * detector slows down with the device instead of running back to back.
+     */
+    public static FrameAdmissionPolicy adaptive() {
+        return new Adaptive();
+    }
+
+    /**
+     * Returns whether the frame captured at {@code frameTimeMs} should be detected, given the
+     * number of frames still being detected. An admitted frame counts as processed from then on.
+     */
+    public abstract boolean admit(long frameTimeMs, int framesInFlight);
+
+    /**
+     * Reports how long the detector took on an admitted frame.
+     */
+    public void onFrameProcessed(long detectorLatencyMs) {
+    }
+
+    private static class KeepLatest extends FrameAdmissionPolicy {
+        @Override
+        public boolean admit(long frameTimeMs, int framesInFlight) {
+            return framesInFlight == 0;
+        }
+    }
+
+    private static class FixedRate extends FrameAdmissionPolicy {
+        private final long frameIntervalMs;
+        private long nextFrameMs = Long.MIN_VALUE;
+
+        FixedRate(int framesPerSecond) {
+            if (framesPerSecond <= 0) {
+                throw new IllegalArgumentException("Invalid frame rate " + framesPerSecond);
+            }
+            frameIntervalMs = 1000 / framesPerSecond;
+        }
+
+        @Override
+        public synchronized boolean admit(long frameTimeMs, int framesInFlight) {
+            if (framesInFlight > 0 || frameTimeMs < nextFrameMs) {
+                return false;
+            }
+            // Keep to the schedule, but don't make up for more than one interval after a stall.
+            nextFrameMs = Math.max(nextFrameMs, frameTimeMs - frameIntervalMs) + frameIntervalMs;
+            return true;
+        }
+    }
+
+    private static class Adaptive extends FrameAdmissionPolicy {
+        // Weight of the latest detector latency in the moving average.
+        private static final float LATENCY_ALPHA = 0.2f;
+        // Share of the time the detector is allowed to be busy.
+        private static final float TARGET_DUTY_CYCLE = 0.8f;
+
+        private float detectorLatencyMs;
+        private long lastFrameMs = Long.MIN_VALUE;
+
+        @Override
+        public synchronized boolean admit(long frameTimeMs, int framesInFlight) {
+            if (framesInFlight > 0
+                    || (lastFrameMs != Long.MIN_VALUE
+                    && frameTimeMs - lastFrameMs < detectorLatencyMs / TARGET_DUTY_CYCLE)) {
+                return false;
+            }
+            lastFrameMs = frameTimeMs;
+            return true;
+        }
+
+        @Override
+        public synchronized void onFrameProcessed(long detectorLatencyMs) {
+            this.detectorLatencyMs = this.detectorLatencyMs == 0
+                    ? detectorLatencyMs
+                    : this.detectorLatencyMs + LATENCY_ALPHA * (detectorLatencyMs - this.detectorLatencyMs);
+        }
+    }
+}
@@ -23,10 +23,15 @@ import android.graphics.Paint;
 import android.util.AttributeSet;
 import android.view.View;
 
+import androidx.annotation.GuardedBy;
+
 import com.google.common.base.Preconditions;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A view which renders a series of custom graphics to be overlayed on top of an associated preview
@@ -48,10 +53,29 @@ import java.util.List;
  *   <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the
  *       coordinate from the image's coordinate system to the view coordinate system.
  * </ol>
+ *
+ * <p>Graphics are drawn from an immutable scene that is only ever replaced as a whole, so drawing
+ * never locks and never sees a half-built frame. Producers build a complete frame with
+ * {@link #beginFrame()}, {@link #add(Graphic)} and {@link #publishFrame()} on their own thread.
  */
 public class GraphicOverlay extends View {
+    /**
+     * Frames a graphic can be part of at the same time: the one being drawn, a published one not
+     * drawn yet and the one being built. Graphics reused across frames need this many instances,
+     * and should still synchronize updating and drawing in case drawing falls further behind.
+     */
+    public static final int MAX_FRAMES_IN_USE = 3;
+
     private final Object lock = new Object();
-    private final List<Graphic> graphics = new ArrayList<>();
+    // Guards the frame being built, producers only.
+    private final Object frameLock = new Object();
+    private final AtomicReference<Scene> scene = new AtomicReference<>(new Scene(Collections.emptyList()));
+    // Frame being built between beginFrame() and publishFrame(), null otherwise.
+    @GuardedBy("frameLock")
+    private List<Graphic> pendingFrame;
+    private final AtomicLong publishedFrames = new AtomicLong();
+    // Published frames replaced by a later one before they were drawn.
+    private final AtomicLong droppedFrames = new AtomicLong();
     // Matrix for transforming from image coordinates to overlay view coordinates.
     private final Matrix transformationMatrix = new Matrix();
 
@@ -164,31 +188,90 @@ public class GraphicOverlay extends View {
      * Removes all graphics from the overlay.
      */
     public void clear() {
-        synchronized (lock) {
-            graphics.clear();
-        }
+        publish(Collections.emptyList());
         postInvalidate();
     }
 
     /**
-     * Adds a graphic to the overlay.
+     * Adds a graphic to the frame being built, or to the overlay right away outside of a frame.
      */
     public void add(Graphic graphic) {
-        synchronized (lock) {
-            graphics.add(graphic);
+        synchronized (frameLock) {
+            if (pendingFrame != null) {
+                pendingFrame.add(graphic);
+                return;
+            }
         }
+        Scene current;
+        List<Graphic> graphics;
+        do {
+            current = scene.get();
+            graphics = new ArrayList<>(current.graphics);
+            graphics.add(graphic);
+        } while (!scene.compareAndSet(current, new Scene(graphics)));
     }
 
     /**
      * Removes a graphic from the overlay.
      */
     public void remove(Graphic graphic) {
-        synchronized (lock) {
+        Scene current;
+        List<Graphic> graphics;
+        do {
+            current = scene.get();
+            graphics = new ArrayList<>(current.graphics);
             graphics.remove(graphic);
+        } while (!scene.compareAndSet(current, new Scene(graphics)));
+        postInvalidate();
+    }
+
+    /**
+     * Starts building the next frame: graphics added from now on stay off screen until
+     * {@link #publishFrame()} replaces the current frame with all of them at once.
+     */
+    public void beginFrame() {
+        synchronized (frameLock) {
+            pendingFrame = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Replaces the frame on screen with the one built since {@link #beginFrame()}.
+     */
+    public void publishFrame() {
+        List<Graphic> frame;
+        synchronized (frameLock) {
+            frame = pendingFrame;
+            pendingFrame = null;
+        }
+        if (frame != null) {
+            publish(frame);
         }
         postInvalidate();
     }
 
+    private void publish(List<Graphic> graphics) {
+        Scene previous = scene.getAndSet(new Scene(Collections.unmodifiableList(graphics)));
+        publishedFrames.incrementAndGet();
+        if (!previous.isDrawn && !previous.graphics.isEmpty()) {
+            droppedFrames.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of frames published so far.
+     */
+    public long getPublishedFrameCount() {
+        return publishedFrames.get();
+    }
+
+    /**
+     * Returns the number of published frames that were replaced before being drawn.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
     /**
      * Sets the source information of the image being processed by detectors, including size and
      * whether it is flipped, which informs how to transform image coordinates later.
@@ -256,9 +339,22 @@ public class GraphicOverlay extends View {
 
         synchronized (lock) {
             updateTransformationIfNeeded();
-            for (Graphic graphic : graphics) {
-                graphic.draw(canvas);
-            }
+        }
+        Scene current = scene.get();
+        current.isDrawn = true;
+        List<Graphic> graphics = current.graphics;
+        for (int i = 0; i < graphics.size(); i++) {
+            graphics.get(i).draw(canvas);
+        }
+    }
+
+    // A published frame, never modified.
+    private static class Scene {
+        private final List<Graphic> graphics;
+        private volatile boolean isDrawn;
+
+        Scene(List<Graphic> graphics) {
+            this.graphics = graphics;
         }
     }
 }
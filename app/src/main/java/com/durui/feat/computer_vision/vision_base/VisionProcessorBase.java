@@ -16,9 +16,6 @@
 
 package com.durui.feat.computer_vision.vision_base;
 
-import static java.lang.Math.max;
-import static java.lang.Math.min;
-
 import android.app.ActivityManager;
 import android.app.ActivityManager.MemoryInfo;
 import android.content.Context;
@@ -39,8 +36,14 @@ import com.durui.feat.computer_vision.vision_base.generic.BitmapUtils;
 import com.durui.feat.computer_vision.vision_base.generic.CameraImageGraphic;
 import com.durui.feat.computer_vision.vision_base.generic.FrameMetadata;
 import com.durui.feat.computer_vision.vision_base.generic.InferenceInfoGraphic;
+import com.durui.feat.computer_vision.vision_base.generic.LatencyHistogram;
+import com.durui.feat.computer_vision.vision_base.generic.Nv21BitmapConverter;
+import com.durui.feat.computer_vision.vision_base.generic.Nv21BufferPool;
+import com.durui.feat.computer_vision.vision_base.generic.PipelineLatencies;
+import com.durui.feat.computer_vision.vision_base.generic.PipelineStage;
 import com.durui.feat.computer_vision.vision_base.generic.ScopedExecutor;
 import com.durui.feat.computer_vision.vision_base.generic.TemperatureMonitor;
+import com.durui.feat.computer_vision.vision_base.generic.ThroughputMeter;
 import com.google.android.gms.tasks.Task;
 import com.google.android.gms.tasks.TaskExecutors;
 import com.google.android.gms.tasks.Tasks;
@@ -48,12 +51,13 @@ import com.google.android.odml.image.BitmapMlImageBuilder;
 import com.google.android.odml.image.ByteBufferMlImageBuilder;
 import com.google.android.odml.image.MediaMlImageBuilder;
 import com.google.android.odml.image.MlImage;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.mlkit.common.MlKitException;
 import com.google.mlkit.vision.common.InputImage;
 
 import java.nio.ByteBuffer;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -66,25 +70,57 @@ import timber.log.Timber;
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     private final ActivityManager activityManager;//获取内存空间
-    private final Timer fpsTimer = new Timer();
-    private final ScopedExecutor executor;
+    // Frames allowed to wait in front of each pipeline stage, older ones are dropped.
+    private static final int STAGE_CAPACITY = 1;
+
+    // Runs the failure listeners until stop().
+    private final ScopedExecutor executor = new ScopedExecutor(MoreExecutors.directExecutor());
     private final TemperatureMonitor temperatureMonitor;
+    private final FrameAdmissionPolicy frameAdmissionPolicy;
+    // Live frames handed to the detector and not detected yet.
+    private final AtomicInteger framesInFlight = new AtomicInteger();
+    // Live frames dropped instead of detected since this processor was created.
+    private final AtomicLong droppedFrames = new AtomicLong();
+    // NV21 conversions of camera frames for the original image, consumed within the same frame.
+    private final Nv21BufferPool nv21BufferPool = new Nv21BufferPool(2);
+    // Original images drawn by CameraImageGraphic. A frame takes its bitmap when it is admitted and
+    // hands it back once a stage dropped it, or once a later frame replaced it on screen.
+    private final Nv21BitmapConverter nv21BitmapConverter = new Nv21BitmapConverter();
+    // Original image of the frame on screen, only used on the render stage.
+    @Nullable
+    private Bitmap displayedCameraImage;
 
     // Whether this processor is already shut down
-    private boolean isShutdown;
-
-    // Used to calculate latency, running in the same thread, no sync needed.
-    private int numRuns = 0;
-    private long totalFrameMs = 0;
-    private long maxFrameMs = 0;
-    private long minFrameMs = Long.MAX_VALUE;
-    private long totalDetectorMs = 0;
-    private long maxDetectorMs = 0;
-    private long minDetectorMs = Long.MAX_VALUE;
-
-    // Frame count that have been processed so far in an one second interval to calculate FPS (Frames Per Second)
-    private int frameProcessedInOneSecondInterval = 0;
-    private int framesPerSecond = 0;
+    private volatile boolean isShutdown;
+
+    private final AtomicLong nextFrameSequence = new AtomicLong();
+    // Sequence number of the last frame rendered, only used on the render stage.
+    private long lastRenderedSequence = -1;
+    // Info graphics reused round robin by render(), one per frame the overlay can hold.
+    private final InferenceInfoGraphic[] inferenceInfoGraphics =
+            new InferenceInfoGraphic[GraphicOverlay.MAX_FRAMES_IN_USE];
+    private int nextInferenceInfoGraphic;
+
+    // Latency of every stage for the lifetime of this processor, that is one camera session.
+    private final PipelineLatencies latencies = new PipelineLatencies();
+
+    // Live frames reaching the processor, processed means handed to the detector.
+    private final ThroughputMeter admissionThroughput = new ThroughputMeter("admission");
+    private final ThroughputMeter classificationThroughput = new ThroughputMeter("classify");
+    private final ThroughputMeter renderThroughput = new ThroughputMeter("render");
+    // Frames drawn on the overlay, its processed fps is the FPS shown (Frames Per Second).
+    private final ThroughputMeter displayThroughput = new ThroughputMeter("display");
+
+    // Stages after detection, each on its own thread: a frame is classified and rendered while the
+    // detector already works on the next one. The render stage runs the result listeners, so only
+    // drawing the overlay is left to the main thread.
+    private final PipelineStage classificationStage = new PipelineStage(
+            "classify", STAGE_CAPACITY, latencies.classification, classificationThroughput);
+    private final PipelineStage renderStage =
+            new PipelineStage("render", STAGE_CAPACITY, latencies.render, renderThroughput);
+
+    // When inference info was last logged, only used on the render stage.
+    private long lastLogNanos = -1;
 
     // To keep the latest images and its metadata.
     @GuardedBy("this")
@@ -103,24 +139,42 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     //构造函数
     protected VisionProcessorBase(Context context) {
         activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        executor = new ScopedExecutor(TaskExecutors.MAIN_THREAD);
-        fpsTimer.scheduleAtFixedRate(
-                new TimerTask() {
-                    @Override
-                    public void run() {
-                        framesPerSecond = frameProcessedInOneSecondInterval;
-                        frameProcessedInOneSecondInterval = 0; //定时任务倘若不重置，Frames将叠加
-                    }
-                },
-                /* delay= */ 0,
-                /* period= */ 1000);
         temperatureMonitor = new TemperatureMonitor(context);
+        frameAdmissionPolicy = PreferenceUtils.getFrameAdmissionPolicy(context);
+    }
+
+    /**
+     * Returns the latency histograms of the pipeline stages for this session.
+     */
+    public PipelineLatencies getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * Returns the throughput of live frames in front of the detector.
+     */
+    public ThroughputMeter getAdmissionThroughput() {
+        return admissionThroughput;
+    }
+
+    /**
+     * Returns the throughput of frames drawn on the overlay.
+     */
+    public ThroughputMeter getDisplayThroughput() {
+        return displayThroughput;
+    }
+
+    /**
+     * Returns the number of live frames dropped so far without being detected.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
     }
 
     // ----- Code for processing single still image -----
     @Override
     public void processBitmap(Bitmap bitmap, final GraphicOverlay graphicOverlay) {
-        long frameStartMs = SystemClock.elapsedRealtime();
+        long frameStartNanos = SystemClock.elapsedRealtimeNanos();
 
         if (isMlImageEnabled(graphicOverlay.getContext())) {
             MlImage mlImage = new BitmapMlImageBuilder(bitmap).build();
@@ -129,7 +183,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                     graphicOverlay,
                     /* originalCameraImage= */ null,
                     /* shouldShowFps= */ false,
-                    frameStartMs);
+                    frameStartNanos,
+                    /* frameTimestampNanos= */ frameStartNanos);
             mlImage.close();
 
             return;
@@ -140,13 +195,19 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                 graphicOverlay,
                 /* originalCameraImage= */ null,
                 /* shouldShowFps= */ false,
-                frameStartMs);
+                frameStartNanos,
+                /* frameTimestampNanos= */ frameStartNanos);
     }
 
     // ----- Code for processing live preview frame from Camera1 API -----
     @Override
     public synchronized void processByteBuffer(
             ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
+        if (latestImage != null) {
+            // The previous frame never got to the detector.
+            droppedFrames.incrementAndGet();
+            admissionThroughput.markDropped(SystemClock.elapsedRealtimeNanos());
+        }
         latestImage = data;
         latestImageMetaData = frameMetadata;
         if (processingImage == null && processingMetaData == null) {
@@ -166,14 +227,20 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
     private void processImage(
             ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay graphicOverlay) {
-        long frameStartMs = SystemClock.elapsedRealtime();
+        long frameStartNanos = SystemClock.elapsedRealtimeNanos();
+        admissionThroughput.markProcessed(frameStartNanos);
+        // Fall back to the arrival time when the camera did not stamp the frame.
+        long frameTimestampNanos = frameMetadata.getTimestampNanos();
+        if (frameTimestampNanos <= 0) {
+            frameTimestampNanos = frameStartNanos;
+        }
 
         // If live viewport is on (that is the underneath surface view takes care of the camera preview
         // drawing), skip the unnecessary bitmap creation that used for the manual preview drawing.
         Bitmap bitmap =
                 PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())
                         ? null
-                        : BitmapUtils.getBitmap(data, frameMetadata);
+                        : BitmapUtils.getBitmap(data, frameMetadata, nv21BitmapConverter);
 
         if (isMlImageEnabled(graphicOverlay.getContext())) {
             MlImage mlImage =
@@ -185,7 +252,13 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                             .setRotation(frameMetadata.getRotation())
                             .build();
 
-            requestDetectInImage(mlImage, graphicOverlay, bitmap, /* shouldShowFps= */ true, frameStartMs)
+            requestDetectInImage(
+                    mlImage,
+                    graphicOverlay,
+                    bitmap,
+                    /* shouldShowFps= */ true,
+                    frameStartNanos,
+                    frameTimestampNanos)
                     .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
 
             // This is optional. Java Garbage collection can also close it eventually.
@@ -203,7 +276,8 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                 graphicOverlay,
                 bitmap,
                 /* shouldShowFps= */ true,
-                frameStartMs)
+                frameStartNanos,
+                frameTimestampNanos)
                 .addOnSuccessListener(executor, results -> processLatestImage(graphicOverlay));
     }
 
@@ -212,48 +286,53 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     @RequiresApi(VERSION_CODES.LOLLIPOP)
     @ExperimentalGetImage
     public void processImageProxy(ImageProxy image, GraphicOverlay graphicOverlay) {
-        long frameStartMs = SystemClock.elapsedRealtime();
+        long frameStartNanos = SystemClock.elapsedRealtimeNanos();
         if (isShutdown) {
             image.close();
             return;
         }
+        if (!frameAdmissionPolicy.admit(frameStartNanos / 1_000_000, framesInFlight.get())) {
+            droppedFrames.incrementAndGet();
+            admissionThroughput.markDropped(frameStartNanos);
+            image.close();
+            return;
+        }
+        admissionThroughput.markProcessed(frameStartNanos);
+        framesInFlight.incrementAndGet();
 
         Bitmap bitmap = null;
         if (!PreferenceUtils.isCameraLiveViewportEnabled(graphicOverlay.getContext())) {
-            bitmap = BitmapUtils.getBitmap(image);
+            bitmap = BitmapUtils.getBitmap(image, nv21BufferPool, nv21BitmapConverter);
         }
 
+        Task<T> detectionTask;
         if (isMlImageEnabled(graphicOverlay.getContext())) {
             MlImage mlImage =
                     new MediaMlImageBuilder(image.getImage())
                             .setRotation(image.getImageInfo().getRotationDegrees())
                             .build();
-
-            requestDetectInImage(
-                    mlImage,
-                    graphicOverlay,
-                    /* originalCameraImage= */ bitmap,
-                    /* shouldShowFps= */ true,
-                    frameStartMs)
-                    // When the image is from CameraX analysis use case, must call image.close() on received
-                    // images when finished using them. Otherwise, new images may not be received or the
-                    // camera may stall.
-                    // Currently MlImage doesn't support ImageProxy directly, so we still need to call
-                    // ImageProxy.close() here.
-                    .addOnCompleteListener(results -> image.close());
-            return;
+            detectionTask = detectInImage(mlImage);
+        } else {
+            detectionTask = detectInImage(
+                    InputImage.fromMediaImage(image.getImage(), image.getImageInfo().getRotationDegrees()));
         }
-
-        requestDetectInImage(
-                InputImage.fromMediaImage(image.getImage(), image.getImageInfo().getRotationDegrees()),
+        // When the image is from CameraX analysis use case, must call image.close() on received
+        // images when finished using them. Otherwise, new images may not be received or the camera
+        // may stall.
+        // Currently MlImage doesn't support ImageProxy directly, so we still need to call
+        // ImageProxy.close() here. The image is no longer needed once detected, so the next frame can
+        // be detected while this one is classified and rendered.
+        detectionTask.addOnCompleteListener(MoreExecutors.directExecutor(), results -> {
+            framesInFlight.decrementAndGet();
+            image.close();
+        });
+        setUpListener(
+                detectionTask,
                 graphicOverlay,
                 /* originalCameraImage= */ bitmap,
                 /* shouldShowFps= */ true,
-                frameStartMs)
-                // When the image is from CameraX analysis use case, must call image.close() on received
-                // images when finished using them. Otherwise, new images may not be received or the camera
-                // may stall.
-                .addOnCompleteListener(results -> image.close());
+                frameStartNanos,
+                image.getImageInfo().getTimestamp());
     }
 
     // -----------------Common processing logic-------------------------------------------------------
@@ -262,9 +341,15 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             final GraphicOverlay graphicOverlay,
             @Nullable final Bitmap originalCameraImage,
             boolean shouldShowFps,
-            long frameStartMs) {
+            long frameStartNanos,
+            long frameTimestampNanos) {
         return setUpListener(
-                detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+                detectInImage(image),
+                graphicOverlay,
+                originalCameraImage,
+                shouldShowFps,
+                frameStartNanos,
+                frameTimestampNanos);
     }
 
     private Task<T> requestDetectInImage(
@@ -272,100 +357,159 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             final GraphicOverlay graphicOverlay,
             @Nullable final Bitmap originalCameraImage,
             boolean shouldShowFps,
-            long frameStartMs) {
+            long frameStartNanos,
+            long frameTimestampNanos) {
         return setUpListener(
-                detectInImage(image), graphicOverlay, originalCameraImage, shouldShowFps, frameStartMs);
+                detectInImage(image),
+                graphicOverlay,
+                originalCameraImage,
+                shouldShowFps,
+                frameStartNanos,
+                frameTimestampNanos);
     }
 
+    /**
+     * Hands the detection results of a frame to the classification stage and then to the render
+     * stage, returning the task of the rendered results. {@code frameTimestampNanos} is when the
+     * frame was captured, which the classification stage uses as its clock.
+     */
     private Task<T> setUpListener(
             Task<T> task,
             final GraphicOverlay graphicOverlay,
             @Nullable final Bitmap originalCameraImage,
             boolean shouldShowFps,
-            long frameStartMs) {
-        final long detectorStartMs = SystemClock.elapsedRealtime();
-        return task.addOnSuccessListener(
-                        executor,
-                        results -> {
-                            long endMs = SystemClock.elapsedRealtime();
-                            long currentFrameLatencyMs = endMs - frameStartMs;
-                            long currentDetectorLatencyMs = endMs - detectorStartMs;
-                            if (numRuns >= 500) {
-                                resetLatencyStats();
-                            }
-                            numRuns++;
-                            frameProcessedInOneSecondInterval++;
-                            totalFrameMs += currentFrameLatencyMs;
-                            maxFrameMs = max(currentFrameLatencyMs, maxFrameMs);
-                            minFrameMs = min(currentFrameLatencyMs, minFrameMs);
-                            totalDetectorMs += currentDetectorLatencyMs;
-                            maxDetectorMs = max(currentDetectorLatencyMs, maxDetectorMs);
-                            minDetectorMs = min(currentDetectorLatencyMs, minDetectorMs);
-
-                            // Only log inference info once per second. When frameProcessedInOneSecondInterval is
-                            // equal to 1, it means this is the first frame processed during the current second.
-                            if (frameProcessedInOneSecondInterval == 1) {
-                                Timber.d("Num of Runs: %s", numRuns);
-                                Timber.d("Frame latency: max="
-                                        + maxFrameMs
-                                        + ", min="
-                                        + minFrameMs
-                                        + ", avg="
-                                        + totalFrameMs / numRuns);
-                                Timber.d("Detector latency: max="
-                                        + maxDetectorMs
-                                        + ", min="
-                                        + minDetectorMs
-                                        + ", avg="
-                                        + totalDetectorMs / numRuns);
-                                MemoryInfo mi = new MemoryInfo();
-                                activityManager.getMemoryInfo(mi);
-                                long availableMegs = mi.availMem / 0x100000L;
-                                Timber.d("Memory available in system: " + availableMegs + " MB");
-                                temperatureMonitor.logTemperature();
-                            }
-
-                            graphicOverlay.clear();
-                            if (originalCameraImage != null) {
-                                graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
-                            }
-                            VisionProcessorBase.this.onSuccess(results, graphicOverlay);
-                            if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
-                                graphicOverlay.add(
-                                        new InferenceInfoGraphic(
-                                                graphicOverlay,
-                                                currentFrameLatencyMs,
-                                                currentDetectorLatencyMs,
-                                                shouldShowFps ? framesPerSecond : null));
-                            }
-                            graphicOverlay.postInvalidate();
-                        })
-                .addOnFailureListener(
-                        executor,
-                        e -> {
-                            graphicOverlay.clear();
-                            graphicOverlay.postInvalidate();
-                            String error = "Failed to process. Error: " + e.getLocalizedMessage();
-                            Toast.makeText(
+            long frameStartNanos,
+            long frameTimestampNanos) {
+        final long detectorStartNanos = SystemClock.elapsedRealtimeNanos();
+        final long frameSequence = nextFrameSequence.getAndIncrement();
+        latencies.cameraToDetector.recordNanos(detectorStartNanos - frameStartNanos);
+        Task<T> renderedTask = task.onSuccessTask(
+                        MoreExecutors.directExecutor(),
+                        detectedResults -> {
+                            long detectorLatencyNanos =
+                                    SystemClock.elapsedRealtimeNanos() - detectorStartNanos;
+                            latencies.detector.recordNanos(detectorLatencyNanos);
+                            return classificationStage
+                                    .submit(() -> classify(detectedResults, frameTimestampNanos))
+                                    .onSuccessTask(
+                                            MoreExecutors.directExecutor(),
+                                            results -> renderStage.submit(() -> {
+                                                render(
+                                                        results,
+                                                        graphicOverlay,
+                                                        originalCameraImage,
+                                                        shouldShowFps,
+                                                        frameStartNanos,
+                                                        detectorLatencyNanos / 1_000_000,
+                                                        frameSequence);
+                                                return results;
+                                            }));
+                        });
+        if (originalCameraImage != null) {
+            // A failed frame never reached the screen. Released here since the listener below no
+            // longer runs once this processor is stopped.
+            renderedTask.addOnFailureListener(
+                    MoreExecutors.directExecutor(),
+                    e -> nv21BitmapConverter.release(originalCameraImage));
+        }
+        return renderedTask.addOnFailureListener(
+                executor,
+                e -> {
+                    if (e instanceof PipelineStage.FrameDroppedException) {
+                        // A later frame replaces it on screen.
+                        return;
+                    }
+                    graphicOverlay.clear();
+                    graphicOverlay.postInvalidate();
+                    String error = "Failed to process. Error: " + e.getLocalizedMessage();
+                    TaskExecutors.MAIN_THREAD.execute(
+                            () -> Toast.makeText(
                                             graphicOverlay.getContext(),
                                             error + "\nCause: " + e.getCause(),
                                             Toast.LENGTH_SHORT)
-                                    .show();
-                            Timber.d(error);
-                            e.printStackTrace();
-                            VisionProcessorBase.this.onFailure(e);
-                        });
+                                    .show());
+                    Timber.d(error);
+                    e.printStackTrace();
+                    VisionProcessorBase.this.onFailure(e);
+                });
     }
 
-    //重置延迟统计～单帧处理时间
-    private void resetLatencyStats() {
-        numRuns = 0;
-        totalFrameMs = 0;
-        maxFrameMs = 0;
-        minFrameMs = Long.MAX_VALUE;
-        totalDetectorMs = 0;
-        maxDetectorMs = 0;
-        minDetectorMs = Long.MAX_VALUE;
+    // Runs on the render stage, which frames reach in the order they were detected.
+    private void render(
+            T results,
+            GraphicOverlay graphicOverlay,
+            @Nullable Bitmap originalCameraImage,
+            boolean shouldShowFps,
+            long frameStartNanos,
+            long currentDetectorLatencyMs,
+            long frameSequence) {
+        long nowNanos = SystemClock.elapsedRealtimeNanos();
+        if (frameSequence < lastRenderedSequence) {
+            // Never draw over a later frame.
+            displayThroughput.markDropped(nowNanos);
+            if (originalCameraImage != null) {
+                nv21BitmapConverter.release(originalCameraImage);
+            }
+            return;
+        }
+        lastRenderedSequence = frameSequence;
+        displayThroughput.markProcessed(nowNanos);
+
+        long currentFrameLatencyMs = (nowNanos - frameStartNanos) / 1_000_000;
+        frameAdmissionPolicy.onFrameProcessed(currentDetectorLatencyMs);
+
+        // Only log inference info once per second.
+        if (lastLogNanos < 0 || nowNanos - lastLogNanos >= ThroughputMeter.DEFAULT_WINDOW_NANOS) {
+            lastLogNanos = nowNanos;
+            Timber.d("Throughput %s; %s; %s; %s",
+                    admissionThroughput.toString(nowNanos),
+                    classificationThroughput.toString(nowNanos),
+                    renderThroughput.toString(nowNanos),
+                    displayThroughput.toString(nowNanos));
+            for (LatencyHistogram histogram : latencies.getAll()) {
+                Timber.d("Latency %s", histogram);
+            }
+            Timber.d("Dropped frames: %s", droppedFrames.get());
+            Timber.d("Overlay frames: published=%s, replaced before drawn=%s",
+                    graphicOverlay.getPublishedFrameCount(), graphicOverlay.getDroppedFrameCount());
+            MemoryInfo mi = new MemoryInfo();
+            activityManager.getMemoryInfo(mi);
+            long availableMegs = mi.availMem / 0x100000L;
+            Timber.d("Memory available in system: %s MB", availableMegs);
+            temperatureMonitor.logTemperature();
+        }
+
+        // Build the whole frame off screen, it replaces the previous one in one go.
+        graphicOverlay.beginFrame();
+        if (originalCameraImage != null) {
+            graphicOverlay.add(new CameraImageGraphic(graphicOverlay, originalCameraImage));
+        }
+        VisionProcessorBase.this.onSuccess(results, graphicOverlay);
+        if (!PreferenceUtils.shouldHideDetectionInfo(graphicOverlay.getContext())) {
+            InferenceInfoGraphic inferenceInfoGraphic =
+                    inferenceInfoGraphics[nextInferenceInfoGraphic];
+            if (inferenceInfoGraphic == null) {
+                inferenceInfoGraphic = new InferenceInfoGraphic(graphicOverlay, 0, 0, null);
+                inferenceInfoGraphics[nextInferenceInfoGraphic] = inferenceInfoGraphic;
+            }
+            nextInferenceInfoGraphic = (nextInferenceInfoGraphic + 1) % inferenceInfoGraphics.length;
+            inferenceInfoGraphic.update(
+                    currentFrameLatencyMs,
+                    currentDetectorLatencyMs,
+                    shouldShowFps ? displayThroughput.getProcessedFrames(nowNanos) : null,
+                    shouldShowFps ? latencies : null);
+            graphicOverlay.add(inferenceInfoGraphic);
+        }
+        graphicOverlay.publishFrame();
+
+        // The main thread may still be drawing the replaced frame, by the time it gets to the
+        // release it has moved on to the new one.
+        Bitmap replacedCameraImage = displayedCameraImage;
+        displayedCameraImage = originalCameraImage;
+        if (replacedCameraImage != null) {
+            TaskExecutors.MAIN_THREAD.execute(
+                    () -> nv21BitmapConverter.release(replacedCameraImage));
+        }
     }
 
     protected abstract Task<T> detectInImage(InputImage image);
@@ -377,6 +521,18 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
                         MlKitException.INVALID_ARGUMENT));
     }
 
+    /**
+     * Second pipeline stage, run on its own thread once a frame is detected while the detector moves
+     * on to the next frame. Returns the detection results unchanged by default.
+     *
+     * @param frameTimestampNanos when the frame was captured. Frames reach this stage in capture
+     *     order, so anything smoothed over time should use it rather than reading the clock here,
+     *     which would also count the time the frame spent queued.
+     */
+    protected T classify(@NonNull T results, long frameTimestampNanos) {
+        return results;
+    }
+
     protected abstract void onSuccess(@NonNull T results, @NonNull GraphicOverlay graphicOverlay);
 
     protected abstract void onFailure(@NonNull Exception e);
@@ -388,9 +544,12 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
     @Override
     public void stop() {
         executor.shutdown();
+        classificationStage.shutdown();
+        renderStage.shutdown();
         isShutdown = true;
-        resetLatencyStats();
-        fpsTimer.cancel();
+        if (latencies.render.getTotalCount() > 0) {
+            Timber.i("Pipeline latency of this session (ms):\n%s", latencies.export());
+        }
         temperatureMonitor.stop();
     }
 }
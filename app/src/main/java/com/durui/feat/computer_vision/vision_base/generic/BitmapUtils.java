@@ -18,11 +18,7 @@ package com.durui.feat.computer_vision.vision_base.generic;
 
 import android.content.ContentResolver;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
 import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.media.Image;
 import android.media.Image.Plane;
 import android.net.Uri;
@@ -33,7 +29,6 @@ import androidx.camera.core.ExperimentalGetImage;
 import androidx.camera.core.ImageProxy;
 import androidx.exifinterface.media.ExifInterface;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -58,20 +53,18 @@ public class BitmapUtils {
      */
     @Nullable
     public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-        data.rewind();
-        byte[] imageInBuffer = new byte[data.limit()];
-        data.get(imageInBuffer, 0, imageInBuffer.length);
-        try {
-            YuvImage image =
-                    new YuvImage(
-                            imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
-
-            Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
+        return getBitmap(data, metadata, new Nv21BitmapConverter());
+    }
 
-            stream.close();
-            return rotateBitmap(bmp, metadata.getRotation(), false, false);
+    /**
+     * Like {@link #getBitmap(ByteBuffer, FrameMetadata)}, taking the bitmap from
+     * {@code bitmapConverter}, which it should be released to once it is no longer drawn.
+     */
+    @Nullable
+    public static Bitmap getBitmap(
+            ByteBuffer data, FrameMetadata metadata, Nv21BitmapConverter bitmapConverter) {
+        try {
+            return bitmapConverter.convert(data, metadata);
         } catch (Exception e) {
             Timber.tag("VisionProcessorBase").e("Error: " + e.getMessage());
         }
@@ -85,20 +78,32 @@ public class BitmapUtils {
     @Nullable
     @ExperimentalGetImage
     public static Bitmap getBitmap(ImageProxy image) {
+        return getBitmap(image, new Nv21BufferPool(1), new Nv21BitmapConverter());
+    }
+
+    /**
+     * Like {@link #getBitmap(ImageProxy)}, converting through a buffer of {@code bufferPool} into a
+     * bitmap of {@code bitmapConverter} so consecutive frames don't allocate.
+     */
+    @Nullable
+    @ExperimentalGetImage
+    public static Bitmap getBitmap(
+            ImageProxy image, Nv21BufferPool bufferPool, Nv21BitmapConverter bitmapConverter) {
         FrameMetadata frameMetadata =
                 new FrameMetadata.Builder()
                         .setWidth(image.getWidth())
                         .setHeight(image.getHeight())
                         .setRotation(image.getImageInfo().getRotationDegrees())
+                        .setTimestampNanos(image.getImageInfo().getTimestamp())
                         .build();
 
-        ByteBuffer nv21Buffer =
-                yuv420ThreePlanesToNV21(image.getImage().getPlanes(), image.getWidth(), image.getHeight());
-        return getBitmap(nv21Buffer, frameMetadata);
+        ByteBuffer nv21Buffer = yuv420ThreePlanesToNV21(
+                image.getImage().getPlanes(), image.getWidth(), image.getHeight(), bufferPool);
+        return getBitmap(nv21Buffer, frameMetadata, bitmapConverter);
     }
 
     /**
-     * Rotates a bitmap if it is converted from a bytebuffer.
+     * Rotates a bitmap, e.g. one decoded from a file.
      * 所有的基本数据类型都有相应的缓冲区类
      */
     private static Bitmap rotateBitmap(
@@ -209,31 +214,30 @@ public class BitmapUtils {
      * them to the NV21 array.
      */
     private static ByteBuffer yuv420ThreePlanesToNV21(
-            Plane[] yuv420888planes, int width, int height) {
+            Plane[] yuv420888planes, int width, int height, Nv21BufferPool bufferPool) {
         int imageSize = width * height;
-        byte[] out = new byte[imageSize + 2 * (imageSize / 4)];
+        ByteBuffer out = bufferPool.acquire(width, height);
 
-        if (areUVPlanesNV21(yuv420888planes, width, height)) {
-            // Copy the Y values.
-            yuv420888planes[0].getBuffer().get(out, 0, imageSize);
+        // Copy the Y values.
+        copyLumaPlane(yuv420888planes[0], width, height, out);
 
-            ByteBuffer uBuffer = yuv420888planes[1].getBuffer();
-            ByteBuffer vBuffer = yuv420888planes[2].getBuffer();
+        if (areUVPlanesNV21(yuv420888planes, width, height)) {
+            // Duplicates leave the positions of the image buffers alone.
+            ByteBuffer uBuffer = yuv420888planes[1].getBuffer().duplicate();
+            ByteBuffer vBuffer = yuv420888planes[2].getBuffer().duplicate();
             // Get the first V value from the V buffer, since the U buffer does not contain it.
-            vBuffer.get(out, imageSize, 1);
+            out.put(vBuffer.get());
             // Copy the first U value and the remaining VU values from the U buffer.
-            uBuffer.get(out, imageSize + 1, 2 * imageSize / 4 - 1);
+            uBuffer.limit(uBuffer.position() + 2 * imageSize / 4 - 1);
+            out.put(uBuffer);
         } else {
-            // Fallback to copying the UV values one by one, which is slower but also works.
-            // Unpack Y.
-            unpackPlane(yuv420888planes[0], width, height, out, 0, 1);
-            // Unpack U.
-            unpackPlane(yuv420888planes[1], width, height, out, imageSize + 1, 2);
-            // Unpack V.
-            unpackPlane(yuv420888planes[2], width, height, out, imageSize, 2);
+            // Fallback to interleaving the V and U values row by row.
+            interleaveChromaPlanes(
+                    yuv420888planes[1], yuv420888planes[2], width / 2, height / 2, out, bufferPool);
         }
 
-        return ByteBuffer.wrap(out);
+        out.rewind();
+        return out;
     }
 
     /**
@@ -266,36 +270,60 @@ public class BitmapUtils {
     }
 
     /**
-     * Unpack an image plane into a byte array.
-     *
-     * <p>The input plane data will be copied in 'out', starting at 'offset' and every pixel will be
-     * spaced by 'pixelStride'. Note that there is no row padding on the output.
+     * Copies the Y plane into {@code out} at its position, without row padding. Rows are copied in
+     * bulk, or the whole plane at once when it isn't padded.
      */
-    private static void unpackPlane(
-            Plane plane, int width, int height, byte[] out, int offset, int pixelStride) {
-        ByteBuffer buffer = plane.getBuffer();
+    private static void copyLumaPlane(Plane plane, int width, int height, ByteBuffer out) {
+        ByteBuffer buffer = plane.getBuffer().duplicate();
         buffer.rewind();
-
-        // Compute the size of the current plane.
-        // We assume that it has the aspect ratio as the original image.
-        int numRow = (buffer.limit() + plane.getRowStride() - 1) / plane.getRowStride();
-        if (numRow == 0) {
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+        if (pixelStride == 1 && rowStride == width) {
+            buffer.limit(width * height);
+            out.put(buffer);
             return;
         }
-        int scaleFactor = height / numRow;
-        int numCol = width / scaleFactor;
-
-        // Extract the data in the output buffer.
-        int outputPos = offset;
-        int rowStart = 0;
-        for (int row = 0; row < numRow; row++) {
-            int inputPos = rowStart;
-            for (int col = 0; col < numCol; col++) {
-                out[outputPos] = buffer.get(inputPos);
-                outputPos += pixelStride;
-                inputPos += plane.getPixelStride();
+        for (int row = 0; row < height; row++) {
+            int rowStart = row * rowStride;
+            if (pixelStride == 1) {
+                // Limit first, so the position never gets past it.
+                buffer.limit(rowStart + width);
+                buffer.position(rowStart);
+                out.put(buffer);
+            } else {
+                for (int col = 0; col < width; col++) {
+                    out.put(buffer.get(rowStart + col * pixelStride));
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the U and V planes into {@code out} at its position as interleaved VU rows, without
+     * row padding. Each chroma row is read in bulk and interleaved in scratch arrays of the pool.
+     */
+    private static void interleaveChromaPlanes(
+            Plane uPlane, Plane vPlane, int chromaWidth, int chromaHeight, ByteBuffer out,
+            Nv21BufferPool bufferPool) {
+        ByteBuffer uBuffer = uPlane.getBuffer().duplicate();
+        ByteBuffer vBuffer = vPlane.getBuffer().duplicate();
+        int uPixelStride = uPlane.getPixelStride();
+        int vPixelStride = vPlane.getPixelStride();
+        int uRowLength = (chromaWidth - 1) * uPixelStride + 1;
+        int vRowLength = (chromaWidth - 1) * vPixelStride + 1;
+        byte[] uRow = bufferPool.getURow(uRowLength);
+        byte[] vRow = bufferPool.getVRow(vRowLength);
+        byte[] vuRow = bufferPool.getVuRow(2 * chromaWidth);
+        for (int row = 0; row < chromaHeight; row++) {
+            uBuffer.position(row * uPlane.getRowStride());
+            uBuffer.get(uRow, 0, uRowLength);
+            vBuffer.position(row * vPlane.getRowStride());
+            vBuffer.get(vRow, 0, vRowLength);
+            for (int col = 0; col < chromaWidth; col++) {
+                vuRow[2 * col] = vRow[col * vPixelStride];
+                vuRow[2 * col + 1] = uRow[col * uPixelStride];
             }
-            rowStart += plane.getRowStride();
+            out.put(vuRow, 0, 2 * chromaWidth);
         }
     }
 
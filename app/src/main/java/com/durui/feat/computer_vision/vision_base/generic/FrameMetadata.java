@@ -25,6 +25,7 @@ public class FrameMetadata {
     private final int width;
     private final int height;
     private final int rotation;
+    private final long timestampNanos;
 
     public int getWidth() {
         return width;
@@ -38,10 +39,18 @@ public class FrameMetadata {
         return rotation;
     }
 
-    private FrameMetadata(int width, int height, int rotation) {
+    /**
+     * Returns when the frame was captured, in nanoseconds of the camera's clock, or 0 if unknown.
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    private FrameMetadata(int width, int height, int rotation, long timestampNanos) {
         this.width = width;
         this.height = height;
         this.rotation = rotation;
+        this.timestampNanos = timestampNanos;
     }
 
     /**
@@ -52,6 +61,7 @@ public class FrameMetadata {
         private int width;
         private int height;
         private int rotation;
+        private long timestampNanos;
 
         public Builder setWidth(int width) {
             this.width = width;
@@ -68,8 +78,13 @@ public class FrameMetadata {
             return this;
         }
 
+        public Builder setTimestampNanos(long timestampNanos) {
+            this.timestampNanos = timestampNanos;
+            return this;
+        }
+
         public FrameMetadata build() {
-            return new FrameMetadata(width, height, rotation);
+            return new FrameMetadata(width, height, rotation, timestampNanos);
         }
     }
 }
@@ -19,7 +19,6 @@ package com.durui.feat.computer_vision.vision_base.generic;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Typeface;
 
 import androidx.annotation.Nullable;
 
@@ -27,21 +26,32 @@ import com.durui.feat.computer_vision.vision_base.GraphicOverlay;
 
 /**
  * Graphic instance for rendering inference info (latency, FPS, resolution) in an overlay view.
+ *
+ * <p>Live preview reuses instances through {@link #update(long, long, Integer, PipelineLatencies)},
+ * the text is rebuilt in a {@link TextBuffer} so drawing doesn't allocate. With latencies it also
+ * shows the p50/p90/p99/max latency of every pipeline stage so far.
  */
 public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
 
     private static final int TEXT_COLOR = Color.rgb(238, 255, 255);//primaryLight
     private static final float TEXT_SIZE = 50.0f;
+    private static final float LATENCY_TEXT_SIZE = 30.0f;
     private static final String TEXT_FACE = "font/jet_brains_mono.ttf";
+    private static final String SIGNATURE = "软件 2003 杜睿";
+
+    private static Paint textPaint;
+    private static Paint latencyTextPaint;
 
-    private final Paint textPaint;
     private final GraphicOverlay overlay;
-    private final long frameLatency;
-    private final long detectorLatency;
+    private final TextBuffer text = new TextBuffer();
+    private long frameLatency;
+    private long detectorLatency;
 
     // Only valid when a stream of input images is being processed. Null for single image mode.
     @Nullable
-    private final Integer framesPerSecond;
+    private Integer framesPerSecond;
+    @Nullable
+    private PipelineLatencies latencies;
     private boolean showLatencyInfo = true;
 
     public InferenceInfoGraphic(
@@ -51,19 +61,8 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
             @Nullable Integer framesPerSecond) {
         super(overlay);
         this.overlay = overlay;
-        this.frameLatency = frameLatency;
-        this.detectorLatency = detectorLatency;
-        this.framesPerSecond = framesPerSecond;
-
-        //TODO
-        textPaint = new Paint();
-        textPaint.setColor(TEXT_COLOR);
-        textPaint.setTextSize(TEXT_SIZE);
-        Typeface typeFace = Typeface.createFromAsset(getApplicationContext().getAssets(), TEXT_FACE);
-        textPaint.setTypeface(typeFace);
-
-        //invalidate 在主线程（UI线程）中调用，postInvalidate在工作线程中调用
-        postInvalidate();
+        initPaint(overlay);
+        update(frameLatency, detectorLatency, framesPerSecond, null);
     }
 
     /**
@@ -74,31 +73,65 @@ public class InferenceInfoGraphic extends GraphicOverlay.Graphic {
         showLatencyInfo = false;
     }
 
+    private static synchronized void initPaint(GraphicOverlay overlay) {
+        if (textPaint != null) {
+            return;
+        }
+        textPaint = new Paint();
+        textPaint.setColor(TEXT_COLOR);
+        textPaint.setTextSize(TEXT_SIZE);
+        textPaint.setTypeface(Typefaces.getFromAsset(overlay.getContext(), TEXT_FACE));
+        latencyTextPaint = new Paint(textPaint);
+        latencyTextPaint.setTextSize(LATENCY_TEXT_SIZE);
+    }
+
+    /**
+     * Replaces the latency info drawn by this graphic.
+     */
+    public synchronized void update(
+            long frameLatency,
+            long detectorLatency,
+            @Nullable Integer framesPerSecond,
+            @Nullable PipelineLatencies latencies) {
+        this.frameLatency = frameLatency;
+        this.detectorLatency = detectorLatency;
+        this.framesPerSecond = framesPerSecond;
+        this.latencies = latencies;
+    }
+
     @Override
     public synchronized void draw(Canvas canvas) {
         float x = TEXT_SIZE * 0.5f;
         float y = TEXT_SIZE * 1.5f;
 
-        canvas.drawText(
-                "InputImage size: " + overlay.getImageHeight() + "x" + overlay.getImageWidth(),
-                x,
-                y,
-                textPaint);
+        text.clear()
+                .append("InputImage size: ")
+                .append(overlay.getImageHeight())
+                .append("x")
+                .append(overlay.getImageWidth())
+                .draw(canvas, x, y, textPaint);
 
         if (!showLatencyInfo) {
             return;
         }
         // Draw FPS (if valid) and inference latency
+        text.clear();
         if (framesPerSecond != null) {
-            canvas.drawText(
-                    "FPS: " + framesPerSecond + ", Frame latency: " + frameLatency + " ms",
-                    x,
-                    y + TEXT_SIZE,
-                    textPaint);
-        } else {
-            canvas.drawText("Frame latency: " + frameLatency + " ms", x, y + TEXT_SIZE, textPaint);
+            text.append("FPS: ").append(framesPerSecond).append(", ");
         }
+        text.append("Frame latency: ").append(frameLatency).append(" ms")
+                .draw(canvas, x, y + TEXT_SIZE, textPaint);
         //canvas.drawText("Detector latency: " + detectorLatency + " ms", x, y + TEXT_SIZE * 2, textPaint);
-        canvas.drawText("软件 2003 杜睿", x, y + TEXT_SIZE * 2, textPaint);
+        canvas.drawText(SIGNATURE, x, y + TEXT_SIZE * 2, textPaint);
+
+        if (latencies == null) {
+            return;
+        }
+        // Stage latency percentiles, p50/p90/p99/max
+        float latencyY = y + TEXT_SIZE * 2 + LATENCY_TEXT_SIZE * 1.5f;
+        for (LatencyHistogram histogram : latencies.getAll()) {
+            histogram.appendSummary(text.clear()).draw(canvas, x, latencyY, latencyTextPaint);
+            latencyY += LATENCY_TEXT_SIZE * 1.2f;
+        }
     }
 }
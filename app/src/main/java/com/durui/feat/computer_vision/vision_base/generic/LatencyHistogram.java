@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import androidx.annotation.GuardedBy;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-size latency histogram in the style of HdrHistogram: values below 128 us are counted
+ * exactly, larger ones in buckets whose width grows with the value, so every recorded value is
+ * known to within 1/64 of it up to {@link #MAX_VALUE_US}.
+ *
+ * <p>Recording is a few shifts and an increment, and neither recording nor reading percentiles
+ * allocates, so every frame of every stage can be recorded for a whole session instead of keeping
+ * averages.
+ */
+public class LatencyHistogram {
+    // Values below 2^SUB_BUCKET_BITS us are counted exactly, larger ones with this many bits.
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    /**
+     * Largest latency told apart, about 9.5 hours, larger ones are recorded as this.
+     */
+    public static final long MAX_VALUE_US = (1L << 35) - 1;
+
+    private final String name;
+    @GuardedBy("this")
+    private final long[] counts = new long[bucketIndex(MAX_VALUE_US) + 1];
+    @GuardedBy("this")
+    private long totalCount;
+    @GuardedBy("this")
+    private long maxValueUs;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Records a latency given in nanoseconds.
+     */
+    public void recordNanos(long latencyNanos) {
+        recordMicros(latencyNanos / 1000);
+    }
+
+    /**
+     * Records a latency given in milliseconds.
+     */
+    public void recordMillis(long latencyMs) {
+        recordMicros(latencyMs * 1000);
+    }
+
+    public synchronized void recordMicros(long latencyUs) {
+        long value = Math.min(Math.max(latencyUs, 0), MAX_VALUE_US);
+        counts[bucketIndex(value)]++;
+        totalCount++;
+        if (value > maxValueUs) {
+            maxValueUs = value;
+        }
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    public synchronized long getMaxMicros() {
+        return maxValueUs;
+    }
+
+    /**
+     * Returns the latency {@code percentile} percent of the recorded values are at or below, as the
+     * upper end of its bucket, or 0 if nothing was recorded.
+     */
+    public synchronized long getMicrosAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        double fraction = Math.min(Math.max(percentile, 0), 100) / 100;
+        long countAtPercentile = Math.max(1, (long) Math.ceil(fraction * totalCount));
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            if (count >= countAtPercentile) {
+                return Math.min(highestValueInBucket(i), maxValueUs);
+            }
+        }
+        return maxValueUs;
+    }
+
+    public synchronized void reset() {
+        Arrays.fill(counts, 0);
+        totalCount = 0;
+        maxValueUs = 0;
+    }
+
+    /**
+     * Appends "name p50/p90/p99/max ms" to {@code text}, e.g. for a debug overlay.
+     */
+    public TextBuffer appendSummary(TextBuffer text) {
+        text.append(name).append(" ");
+        appendMillis(text, getMicrosAtPercentile(50)).append("/");
+        appendMillis(text, getMicrosAtPercentile(90)).append("/");
+        appendMillis(text, getMicrosAtPercentile(99)).append("/");
+        return appendMillis(text, getMaxMicros()).append(" ms");
+    }
+
+    private static TextBuffer appendMillis(TextBuffer text, long micros) {
+        return text.append(micros / 1000f, 1);
+    }
+
+    @Override
+    public String toString() {
+        return name
+                + ": count=" + getTotalCount()
+                + ", p50=" + getMicrosAtPercentile(50) / 1000f
+                + ", p90=" + getMicrosAtPercentile(90) / 1000f
+                + ", p99=" + getMicrosAtPercentile(99) / 1000f
+                + ", max=" + getMaxMicros() / 1000f + " ms";
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        // Keeps the SUB_BUCKET_BITS most significant bits, the top one being always set.
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_HALF_COUNT + (int) (value >>> shift);
+    }
+
+    private static long highestValueInBucket(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index - shift * SUB_BUCKET_HALF_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.GuardedBy;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Converts NV21 frames straight to upright ARGB bitmaps, replacing the JPEG encode and decode of
+ * {@link android.graphics.YuvImage} and the rotated copy made afterwards.
+ *
+ * <p>The rotation is folded into the pixel loop, so every pixel is written once at its final place.
+ * Bitmaps come from a pool and are only re-allocated when the output size changes: a bitmap
+ * returned by {@link #convert(ByteBuffer, FrameMetadata)} belongs to the caller until it hands it
+ * back with {@link #release(Bitmap)}, and is never written to before that. A converter serves one
+ * converting thread at a time, bitmaps can be released from any thread.
+ */
+public class Nv21BitmapConverter {
+    @GuardedBy("freeBitmaps")
+    private final ArrayDeque<Bitmap> freeBitmaps = new ArrayDeque<>();
+    // Only used for buffers that aren't backed by an array.
+    private byte[] nv21Copy = new byte[0];
+    private int[] pixels = new int[0];
+
+    /**
+     * Converts the NV21 frame in {@code data} to a bitmap rotated by {@code metadata.getRotation()}
+     * degrees clockwise.
+     */
+    public Bitmap convert(ByteBuffer data, FrameMetadata metadata) {
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int rotation = normalizeRotation(metadata.getRotation());
+        boolean transposed = rotation == 90 || rotation == 270;
+        int outWidth = transposed ? height : width;
+        int outHeight = transposed ? width : height;
+
+        if (pixels.length < width * height) {
+            pixels = new int[width * height];
+        }
+        if (data.hasArray()) {
+            // Pooled and wrapped frames are read where they are.
+            nv21ToArgb(data.array(), data.arrayOffset(), width, height, rotation, pixels);
+        } else {
+            int size = Nv21BufferPool.getNv21Size(width, height);
+            if (nv21Copy.length < size) {
+                nv21Copy = new byte[size];
+            }
+            ByteBuffer source = data.duplicate();
+            source.rewind();
+            source.get(nv21Copy, 0, size);
+            nv21ToArgb(nv21Copy, 0, width, height, rotation, pixels);
+        }
+
+        Bitmap bitmap = acquireBitmap(outWidth, outHeight);
+        bitmap.setPixels(pixels, 0, outWidth, 0, 0, outWidth, outHeight);
+        return bitmap;
+    }
+
+    /**
+     * Hands a bitmap returned by {@link #convert(ByteBuffer, FrameMetadata)} back for later
+     * conversions. It must not be drawn or read anymore.
+     */
+    public void release(Bitmap bitmap) {
+        synchronized (freeBitmaps) {
+            freeBitmaps.addLast(bitmap);
+        }
+    }
+
+    private Bitmap acquireBitmap(int width, int height) {
+        synchronized (freeBitmaps) {
+            Bitmap bitmap;
+            while ((bitmap = freeBitmaps.pollFirst()) != null) {
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    return bitmap;
+                }
+                // Left from before the output size changed.
+                bitmap.recycle();
+            }
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private static int normalizeRotation(int rotation) {
+        rotation %= 360;
+        return rotation < 0 ? rotation + 360 : rotation;
+    }
+
+    /**
+     * Writes the full-range BT.601 ARGB pixels of the NV21 image starting at {@code offset} in
+     * {@code nv21} into {@code out}, rotated clockwise by {@code rotation} (0, 90, 180 or 270)
+     * degrees. Rows of {@code out} are as wide as the rotated image.
+     */
+    static void nv21ToArgb(
+            byte[] nv21, int offset, int width, int height, int rotation, int[] out) {
+        // Output index of source pixel (x, y) is start + x * xStep + y * yStep.
+        int start;
+        int xStep;
+        int yStep;
+        switch (rotation) {
+            case 90:
+                start = height - 1;
+                xStep = height;
+                yStep = -1;
+                break;
+            case 180:
+                start = width * height - 1;
+                xStep = -1;
+                yStep = -width;
+                break;
+            case 270:
+                start = (width - 1) * height;
+                xStep = -height;
+                yStep = 1;
+                break;
+            default:
+                start = 0;
+                xStep = 1;
+                yStep = width;
+        }
+
+        int imageSize = width * height;
+        for (int y = 0; y < height; y++) {
+            int yIndex = offset + y * width;
+            int vuIndex = offset + imageSize + (y >> 1) * width;
+            int outIndex = start + y * yStep;
+            for (int x = 0; x < width; x++) {
+                int luma = nv21[yIndex + x] & 0xff;
+                int v = (nv21[vuIndex + (x & ~1)] & 0xff) - 128;
+                int u = (nv21[vuIndex + (x & ~1) + 1] & 0xff) - 128;
+                // 16.16 fixed point coefficients of 1.402, 0.344, 0.714 and 1.772.
+                int scaledLuma = luma << 16;
+                int r = (scaledLuma + 91881 * v) >> 16;
+                int g = (scaledLuma - 22544 * u - 46793 * v) >> 16;
+                int b = (scaledLuma + 116130 * u) >> 16;
+                out[outIndex] = 0xff000000
+                        | (clamp(r) << 16)
+                        | (clamp(g) << 8)
+                        | clamp(b);
+                outIndex += xStep;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
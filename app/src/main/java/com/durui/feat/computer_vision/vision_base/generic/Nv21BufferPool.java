@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed ring of NV21 buffers sized to the analysis resolution, so converting camera frames
+ * doesn't allocate a new {@code width * height * 1.5} array each time. The buffers are backed by
+ * heap arrays, which {@link Nv21BitmapConverter} reads in place instead of copying them out.
+ *
+ * <p>A buffer returned by {@link #acquire(int, int)} stays valid until {@code capacity} more
+ * buffers have been acquired, so it must not be held longer than that. Buffers are only
+ * re-allocated when the resolution changes. A pool serves one converting thread at a time.
+ */
+public class Nv21BufferPool {
+    private final ByteBuffer[] buffers;
+    private int next;
+    private int width;
+    private int height;
+
+    // Scratch rows used to interleave chroma planes that aren't already in NV21 order.
+    private byte[] uRow = new byte[0];
+    private byte[] vRow = new byte[0];
+    private byte[] vuRow = new byte[0];
+
+    public Nv21BufferPool(int capacity) {
+        buffers = new ByteBuffer[capacity];
+    }
+
+    public static int getNv21Size(int width, int height) {
+        int imageSize = width * height;
+        return imageSize + 2 * (imageSize / 4);
+    }
+
+    /**
+     * Returns the next buffer of the ring, cleared and exactly {@link #getNv21Size(int, int)} long.
+     */
+    public synchronized ByteBuffer acquire(int width, int height) {
+        if (width != this.width || height != this.height) {
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = null;
+            }
+            this.width = width;
+            this.height = height;
+        }
+        ByteBuffer buffer = buffers[next];
+        if (buffer == null) {
+            buffer = ByteBuffer.wrap(new byte[getNv21Size(width, height)]);
+            buffers[next] = buffer;
+        }
+        next = (next + 1) % buffers.length;
+        buffer.clear();
+        return buffer;
+    }
+
+    byte[] getURow(int length) {
+        if (uRow.length < length) {
+            uRow = new byte[length];
+        }
+        return uRow;
+    }
+
+    byte[] getVRow(int length) {
+        if (vRow.length < length) {
+            vRow = new byte[length];
+        }
+        return vRow;
+    }
+
+    byte[] getVuRow(int length) {
+        if (vuRow.length < length) {
+            vuRow = new byte[length];
+        }
+        return vuRow;
+    }
+}
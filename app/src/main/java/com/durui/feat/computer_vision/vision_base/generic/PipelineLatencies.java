@@ -0,0 +1,64 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+/**
+ * Latency histograms of the stages a live frame goes through, kept for a whole session.
+ */
+public class PipelineLatencies {
+    // From the frame reaching the processor to the detector being called.
+    public final LatencyHistogram cameraToDetector = new LatencyHistogram("camera>detector");
+    public final LatencyHistogram detector = new LatencyHistogram("detector");
+    public final LatencyHistogram classification = new LatencyHistogram("classify");
+    public final LatencyHistogram smoothing = new LatencyHistogram("smoothing");
+    // Building and publishing the overlay frame.
+    public final LatencyHistogram render = new LatencyHistogram("render");
+
+    private final LatencyHistogram[] all = {
+            cameraToDetector, detector, classification, smoothing, render
+    };
+
+    /**
+     * Returns every stage, in pipeline order.
+     */
+    public LatencyHistogram[] getAll() {
+        return all;
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : all) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns the stats of every stage as CSV, one line per stage, in milliseconds.
+     */
+    public String export() {
+        StringBuilder csv = new StringBuilder("stage,count,p50,p90,p99,max\n");
+        for (LatencyHistogram histogram : all) {
+            csv.append(histogram.getName())
+                    .append(',').append(histogram.getTotalCount())
+                    .append(',').append(histogram.getMicrosAtPercentile(50) / 1000f)
+                    .append(',').append(histogram.getMicrosAtPercentile(90) / 1000f)
+                    .append(',').append(histogram.getMicrosAtPercentile(99) / 1000f)
+                    .append(',').append(histogram.getMaxMicros() / 1000f)
+                    .append('\n');
+        }
+        return csv.toString();
+    }
+}
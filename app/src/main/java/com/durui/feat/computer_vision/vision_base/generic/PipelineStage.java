@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import android.os.SystemClock;
+
+import androidx.annotation.GuardedBy;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One stage of a frame pipeline: runs the work submitted to it on its own thread, in submission
+ * order, so consecutive stages work on different frames at the same time.
+ *
+ * <p>At most {@code capacity} frames wait in front of the stage. When a new frame arrives at a full
+ * stage the oldest waiting one is dropped, failing its task with a {@link FrameDroppedException},
+ * so a slow stage never makes the pipeline fall behind the camera. The stage records how long each
+ * frame ran into a {@link LatencyHistogram} and the frames it processed and dropped into a
+ * {@link ThroughputMeter}, both owned by the pipeline.
+ */
+public class PipelineStage {
+    private final String name;
+    private final int capacity;
+    private final ThreadPoolExecutor thread;
+    private final LatencyHistogram latency;
+    private final ThroughputMeter throughput;
+    private final Object lock = new Object();
+
+    @GuardedBy("lock")
+    private final ArrayDeque<Work<?>> pending = new ArrayDeque<>();
+
+    @GuardedBy("lock")
+    private boolean isShutdown;
+
+    public PipelineStage(
+            String name, int capacity, LatencyHistogram latency, ThroughputMeter throughput) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.latency = latency;
+        this.throughput = throughput;
+        // Every submission triggers one run of the oldest pending work, dropped work leaves a run
+        // with nothing to do.
+        thread = new ThreadPoolExecutor(
+                /* corePoolSize= */ 1,
+                /* maximumPoolSize= */ 1,
+                /* keepAliveTime= */ 0,
+                TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "PipelineStage-" + name),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Queues {@code work} for this stage and returns its result.
+     */
+    public <T> Task<T> submit(Callable<T> work) {
+        Work<T> newWork = new Work<>(work);
+        Work<?> droppedWork = null;
+        synchronized (lock) {
+            if (isShutdown) {
+                return Tasks.forException(new FrameDroppedException(name));
+            }
+            if (pending.size() == capacity) {
+                droppedWork = pending.pollFirst();
+            }
+            pending.addLast(newWork);
+        }
+        if (droppedWork != null) {
+            throughput.markDropped(SystemClock.elapsedRealtimeNanos());
+            droppedWork.result.trySetException(new FrameDroppedException(name));
+        }
+        thread.execute(this::runNext);
+        return newWork.result.getTask();
+    }
+
+    private void runNext() {
+        Work<?> work;
+        synchronized (lock) {
+            work = pending.pollFirst();
+        }
+        // Null if the work this run was triggered for got dropped.
+        if (work != null) {
+            long startNanos = SystemClock.elapsedRealtimeNanos();
+            work.run();
+            long endNanos = SystemClock.elapsedRealtimeNanos();
+            latency.recordNanos(endNanos - startNanos);
+            throughput.markProcessed(endNanos);
+        }
+    }
+
+    /**
+     * Drops all waiting frames and any later submission. Work already running completes.
+     */
+    public void shutdown() {
+        ArrayDeque<Work<?>> droppedWork;
+        synchronized (lock) {
+            isShutdown = true;
+            droppedWork = new ArrayDeque<>(pending);
+            pending.clear();
+        }
+        for (Work<?> work : droppedWork) {
+            work.result.trySetException(new FrameDroppedException(name));
+        }
+        thread.shutdown();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public ThroughputMeter getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Fails the tasks of frames a {@link PipelineStage} dropped before running them.
+     */
+    public static class FrameDroppedException extends Exception {
+        public FrameDroppedException(String stageName) {
+            super("Frame dropped by pipeline stage " + stageName);
+        }
+    }
+
+    private static class Work<T> {
+        private final Callable<T> callable;
+        private final TaskCompletionSource<T> result = new TaskCompletionSource<>();
+
+        Work(Callable<T> callable) {
+            this.callable = callable;
+        }
+
+        void run() {
+            try {
+                result.trySetResult(callable.call());
+            } catch (Exception e) {
+                result.trySetException(e);
+            }
+        }
+    }
+}
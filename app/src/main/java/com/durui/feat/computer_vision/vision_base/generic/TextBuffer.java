@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * Reusable text for graphics drawn every frame: appending and drawing it doesn't allocate, unlike
+ * string concatenation or {@link String#format}.
+ */
+public final class TextBuffer {
+    private char[] chars = new char[64];
+    private int length;
+
+    public TextBuffer clear() {
+        length = 0;
+        return this;
+    }
+
+    public TextBuffer append(String text) {
+        ensureCapacity(length + text.length());
+        text.getChars(0, text.length(), chars, length);
+        length += text.length();
+        return this;
+    }
+
+    public TextBuffer append(long value) {
+        if (value < 0) {
+            appendChar('-');
+            value = -value;
+        }
+        int start = length;
+        do {
+            appendChar((char) ('0' + value % 10));
+            value /= 10;
+        } while (value > 0);
+        // Digits were appended least significant first.
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char digit = chars[i];
+            chars[i] = chars[j];
+            chars[j] = digit;
+        }
+        return this;
+    }
+
+    /**
+     * Appends {@code value} rounded half up to {@code decimals} digits after the point, like
+     * {@code String.format("%.2f")} does for {@code decimals == 2}, but without a sign for values
+     * rounding to zero.
+     */
+    public TextBuffer append(float value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs((double) value) * scale);
+        if (value < 0 && scaled != 0) {
+            appendChar('-');
+        }
+        append(scaled / scale);
+        if (decimals > 0) {
+            appendChar('.');
+            long fraction = scaled % scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                appendChar((char) ('0' + fraction / digit % 10));
+            }
+        }
+        return this;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void draw(Canvas canvas, float x, float y, Paint paint) {
+        canvas.drawText(chars, 0, length, x, y, paint);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private void appendChar(char c) {
+        ensureCapacity(length + 1);
+        chars[length++] = c;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (chars.length < capacity) {
+            char[] grown = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, length);
+            chars = grown;
+        }
+    }
+}
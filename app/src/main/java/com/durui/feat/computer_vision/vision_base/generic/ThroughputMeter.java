@@ -0,0 +1,182 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Frame throughput of one pipeline stage over a sliding window, driven by the timestamps of the
+ * frames themselves rather than by a timer thread.
+ *
+ * <p>Every frame reaching the stage is either {@link #markProcessed(long) processed} or
+ * {@link #markDropped(long) dropped}. From the frames within the last window the meter reports the
+ * input and processed fps and the fraction of frames dropped, and from the last two frames the
+ * instantaneous fps. Timestamps are nanoseconds of any monotonic clock, the same for all calls.
+ */
+public class ThroughputMeter {
+    public static final long DEFAULT_WINDOW_NANOS = 1_000_000_000L;
+    // Frames remembered per window, more than any camera delivers in one.
+    private static final int MAX_FRAMES_IN_WINDOW = 256;
+
+    private final String name;
+    private final long windowNanos;
+    @GuardedBy("this")
+    private final EventWindow processed = new EventWindow();
+    @GuardedBy("this")
+    private final EventWindow dropped = new EventWindow();
+    @GuardedBy("this")
+    private long lastInputNanos = -1;
+    @GuardedBy("this")
+    private long lastInputIntervalNanos;
+    @GuardedBy("this")
+    private long lastProcessedNanos = -1;
+    @GuardedBy("this")
+    private long lastProcessedIntervalNanos;
+
+    public ThroughputMeter(String name) {
+        this(name, DEFAULT_WINDOW_NANOS);
+    }
+
+    public ThroughputMeter(String name, long windowNanos) {
+        if (windowNanos <= 0) {
+            throw new IllegalArgumentException("Invalid window " + windowNanos);
+        }
+        this.name = name;
+        this.windowNanos = windowNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void markProcessed(long timestampNanos) {
+        markInput(timestampNanos);
+        if (lastProcessedNanos >= 0) {
+            lastProcessedIntervalNanos = timestampNanos - lastProcessedNanos;
+        }
+        lastProcessedNanos = timestampNanos;
+        processed.add(timestampNanos);
+    }
+
+    public synchronized void markDropped(long timestampNanos) {
+        markInput(timestampNanos);
+        dropped.add(timestampNanos);
+    }
+
+    @GuardedBy("this")
+    private void markInput(long timestampNanos) {
+        if (lastInputNanos >= 0) {
+            lastInputIntervalNanos = timestampNanos - lastInputNanos;
+        }
+        lastInputNanos = timestampNanos;
+    }
+
+    /**
+     * Returns the frames per second reaching the stage over the window ending at {@code nowNanos}.
+     */
+    public synchronized float getInputFps(long nowNanos) {
+        return toFps(processed.count(nowNanos - windowNanos) + dropped.count(nowNanos - windowNanos));
+    }
+
+    /**
+     * Returns the frames per second processed over the window ending at {@code nowNanos}.
+     */
+    public synchronized float getProcessedFps(long nowNanos) {
+        return toFps(processed.count(nowNanos - windowNanos));
+    }
+
+    /**
+     * Returns the frames processed within the window ending at {@code nowNanos}, that is the fps
+     * for the default one second window.
+     */
+    public synchronized int getProcessedFrames(long nowNanos) {
+        return processed.count(nowNanos - windowNanos);
+    }
+
+    /**
+     * Returns the fraction of frames reaching the stage that it dropped, over the window ending at
+     * {@code nowNanos}, 0 if there were none.
+     */
+    public synchronized float getDropRate(long nowNanos) {
+        int droppedFrames = dropped.count(nowNanos - windowNanos);
+        int inputFrames = droppedFrames + processed.count(nowNanos - windowNanos);
+        return inputFrames == 0 ? 0 : (float) droppedFrames / inputFrames;
+    }
+
+    /**
+     * Returns the input fps from the interval between the last two frames, 0 before there are two.
+     */
+    public synchronized float getInstantaneousInputFps() {
+        return lastInputIntervalNanos <= 0 ? 0 : 1e9f / lastInputIntervalNanos;
+    }
+
+    /**
+     * Returns the processed fps from the interval between the last two processed frames, 0 before
+     * there are two.
+     */
+    public synchronized float getInstantaneousProcessedFps() {
+        return lastProcessedIntervalNanos <= 0 ? 0 : 1e9f / lastProcessedIntervalNanos;
+    }
+
+    private float toFps(int frames) {
+        return frames * 1e9f / windowNanos;
+    }
+
+    /**
+     * Returns the stats over the window ending at {@code nowNanos}, for logging.
+     */
+    @NonNull
+    public String toString(long nowNanos) {
+        return String.format(
+                Locale.US,
+                "%s: input=%.1f fps (now %.1f), processed=%.1f fps (now %.1f), dropped=%.0f%%",
+                name,
+                getInputFps(nowNanos),
+                getInstantaneousInputFps(),
+                getProcessedFps(nowNanos),
+                getInstantaneousProcessedFps(),
+                getDropRate(nowNanos) * 100);
+    }
+
+    // Ring of the latest timestamps, the oldest ones are evicted as the window slides or when full.
+    private static class EventWindow {
+        private final long[] timestamps = new long[MAX_FRAMES_IN_WINDOW];
+        private int oldest;
+        private int size;
+
+        void add(long timestampNanos) {
+            if (size == timestamps.length) {
+                oldest = (oldest + 1) % timestamps.length;
+                size--;
+            }
+            timestamps[(oldest + size) % timestamps.length] = timestampNanos;
+            size++;
+        }
+
+        // Evicts timestamps at or before windowStartNanos and counts the rest.
+        int count(long windowStartNanos) {
+            while (size > 0 && timestamps[oldest] <= windowStartNanos) {
+                oldest = (oldest + 1) % timestamps.length;
+                size--;
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.vision_base.generic;
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of typefaces loaded from assets, loading one takes far too long to do it for
+ * every frame.
+ */
+public final class Typefaces {
+    private static final Map<String, Typeface> typefaces = new HashMap<>();
+
+    public static synchronized Typeface getFromAsset(Context context, String path) {
+        Typeface typeface = typefaces.get(path);
+        if (typeface == null) {
+            typeface = Typeface.createFromAsset(context.getApplicationContext().getAssets(), path);
+            typefaces.put(path, typeface);
+        }
+        return typeface;
+    }
+
+    private Typefaces() {
+    }
+}
@@ -5,6 +5,9 @@ import android.content.Context;
 
 import androidx.multidex.MultiDex;
 
+import com.durui.feat.computer_vision.classification_counter.PoseClassifierCache;
+import com.durui.feat.computer_vision.classification_counter.PoseClassifierProcessor;
+
 import timber.log.Timber;
 
 public class MyApplication extends Application {
@@ -13,6 +16,10 @@ public class MyApplication extends Application {
         super.onCreate();
         //Google工程师推荐的日志插件，接管TAG + Logcat
         Timber.plant(new Timber.DebugTree());
+        //后台预加载动作分类器，避免打开相机时再解析样本
+        PoseClassifierCache classifierCache = PoseClassifierCache.getInstance(this);
+        classifierCache.prewarm(PoseClassifierProcessor.SQUAT_FILE);
+        classifierCache.prewarm(PoseClassifierProcessor.PUSHUP_FILE);
     }
 
     @Override
@@ -20,17 +20,18 @@ import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
-import androidx.core.content.ContextCompat;
 import androidx.databinding.DataBindingUtil;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.ViewModelProvider;
 
+import com.durui.feat.computer_vision.classification_counter.PoseClassifierRegistry;
 import com.durui.feat.computer_vision.pose_detector.PoseDetectorProcessor;
 import com.durui.feat.computer_vision.preference.PreferenceUtils;
 import com.durui.feat.computer_vision.vision_base.GraphicOverlay;
 import com.durui.feat.computer_vision.vision_base.VisionImageProcessor;
 import com.durui.feat.software_interface.data.db.WorkoutDatabase;
 import com.durui.feat.software_interface.data.table.LiveRecord;
+import com.durui.feat.software_interface.data.table.Sports;
 import com.durui.feat.software_interface.ui.BaseActivity;
 import com.durui.feat.software_interface.ui.R;
 import com.durui.feat.software_interface.ui.TopWindowUtils;
@@ -48,6 +49,9 @@ import timber.log.Timber;
  * 核心框架：向用户提供预览或录制视频以及分析图片流
  */
 public final class LivePreviewActivity extends BaseActivity {
+    //可选：要计数的运动 sports_id，缺省为深蹲
+    public static final String EXTRA_SPORTS_ID = "sports_id";
+
     //数据库
     WorkoutDatabase db;
     LiveRecord liveRecord = new LiveRecord();
@@ -62,6 +66,8 @@ public final class LivePreviewActivity extends BaseActivity {
     private ProcessCameraProvider cameraProvider;
     //语音播报
     private TextToSpeech textToSpeech;
+    //每项运动对应一个分类器，切换运动无需重建检测器
+    private PoseClassifierRegistry classifierRegistry;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -134,10 +140,23 @@ public final class LivePreviewActivity extends BaseActivity {
         });
 
         db = WorkoutDatabase.getInstance(this);
+        classifierRegistry = PoseClassifierRegistry.getInstance(this);
+        long sportsId = getIntent().getLongExtra(EXTRA_SPORTS_ID, PoseClassifierRegistry.NO_SPORTS_ID);
+        if (sportsId != PoseClassifierRegistry.NO_SPORTS_ID) {
+            classifierRegistry.setActiveSports(sportsId);
+        }
+        db.sportsDao().getAll().observe(this, sportsList -> {
+            for (Sports sports : sportsList) {
+                classifierRegistry.register(sports.sports_id, sports.sports_csv);
+            }
+        });
         binding.stopBtn.setOnClickListener(btnView -> {
             Intent intent = new Intent(LivePreviewActivity.this, RecordActivity.class);
             liveRecord.live_user_id = LoginViewModel.phone;
-            liveRecord.live_sports_id = 2L;
+            //运动列表尚未加载时不关联运动，避免外键约束失败
+            long activeSportsId = classifierRegistry.getActiveSportsId();
+            liveRecord.live_sports_id = activeSportsId != PoseClassifierRegistry.NO_SPORTS_ID
+                    ? Long.valueOf(activeSportsId) : null;
             liveRecord.live_sports_num = Long.valueOf(MyCameraXViewModel.reps);
             //android.database.sqlite.SQLiteConstraintException: UNIQUE constraint failed: live_record_table.live_id (code 1555 SQLITE_CONSTRAINT_PRIMARYKEY)
             db.liveRecordDao().insert(liveRecord);
@@ -221,7 +240,9 @@ public final class LivePreviewActivity extends BaseActivity {
         }
 
         //将分析器（图像使用方）连接到 CameraX（图像生成方）并在可视化层显示（结果输出方）
-        ImageAnalysis.Builder builder = new ImageAnalysis.Builder();
+        //只保留最新一帧，检测跟不上时丢弃旧帧而不是排队
+        ImageAnalysis.Builder builder = new ImageAnalysis.Builder()
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST);
         Size targetResolution = PreferenceUtils.getCameraXTargetResolution(this, myCameraXViewModel.getLensFacing());
         if (targetResolution != null) {
             builder.setTargetResolution(targetResolution);
@@ -234,9 +255,8 @@ public final class LivePreviewActivity extends BaseActivity {
          */
         myCameraXViewModel.setNeedUpdateGraphicOverlayImageSourceInfo(true);
         myCameraXViewModel.getAnalysisUseCase().setAnalyzer(
-                // imageProcessor.processImageProxy will use another thread to run the detection underneath,
-                // thus we can just runs the analyzer itself on main thread.
-                ContextCompat.getMainExecutor(this),
+                // Analysis runs on its own thread, so frame conversion never competes with UI rendering.
+                myCameraXViewModel.getAnalysisExecutor(),
                 imageProxy -> {
                     if (myCameraXViewModel.isNeedUpdateGraphicOverlayImageSourceInfo()) {
                         boolean isImageFlipped = myCameraXViewModel.getLensFacing() == CameraSelector.LENS_FACING_FRONT;
@@ -256,12 +276,11 @@ public final class LivePreviewActivity extends BaseActivity {
                         myCameraXViewModel.setNeedUpdateGraphicOverlayImageSourceInfo(false);
                     }
                     try {
-                        //imageProcessor.processImageProxy will use another thread to run the detection underneath, thus we can just runs the analyzer itself on main thread.
                         myCameraXViewModel.getImageProcessor().processImageProxy(imageProxy, graphicOverlay);
                     } catch (MlKitException e) {
                         Timber.e("Failed to process image. Error: %s", e.getLocalizedMessage());
-                        Toast.makeText(getApplicationContext(), e.getLocalizedMessage(), Toast.LENGTH_SHORT)
-                                .show();
+                        runOnUiThread(() -> Toast.makeText(
+                                getApplicationContext(), e.getLocalizedMessage(), Toast.LENGTH_SHORT).show());
                     }
                 });
 
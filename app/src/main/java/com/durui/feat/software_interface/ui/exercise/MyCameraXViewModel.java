@@ -36,6 +36,8 @@ import com.durui.feat.computer_vision.vision_base.VisionImageProcessor;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import timber.log.Timber;
 
@@ -76,9 +78,12 @@ public class MyCameraXViewModel extends AndroidViewModel implements LifecycleEve
     Preview previewUseCase;
     @Nullable
     ImageAnalysis analysisUseCase;
+    //分析器与检测结果都在后台线程处理，主线程只负责绘制
+    final ExecutorService analysisExecutor =
+            Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "CameraXAnalysis"));
     @Nullable
-    VisionImageProcessor imageProcessor;
-    boolean needUpdateGraphicOverlayImageSourceInfo;
+    volatile VisionImageProcessor imageProcessor;
+    volatile boolean needUpdateGraphicOverlayImageSourceInfo;
 
     // Create an instance which interacts with the camera service via the given application context.
     // TODO 其他参数需要 委托自建 ViewModelFactory 执行
@@ -244,9 +249,14 @@ public class MyCameraXViewModel extends AndroidViewModel implements LifecycleEve
      * Methods for completed events
      **/
 
+    public ExecutorService getAnalysisExecutor() {
+        return analysisExecutor;
+    }
+
     @Override
     protected void onCleared() {
         super.onCleared();
+        analysisExecutor.shutdown();
         //timer.cancel();
     }
 
@@ -10,26 +10,55 @@ import androidx.annotation.NonNull;
 import androidx.databinding.DataBindingUtil;
 import androidx.fragment.app.Fragment;
 
+import com.durui.feat.software_interface.data.db.WorkoutDatabase;
+import com.durui.feat.software_interface.data.table.Sports;
 import com.durui.feat.software_interface.ui.R;
 import com.durui.feat.software_interface.ui.databinding.FragmentWorkoutBinding;
 import com.durui.feat.software_interface.ui.exercise.LivePreviewActivity;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
 
 
 public class WorkoutFragment extends Fragment {
     FragmentWorkoutBinding binding;
+    List<Sports> sportsList = new ArrayList<>();
 
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         binding = DataBindingUtil.inflate(inflater, R.layout.fragment_workout, container, false);
+        WorkoutDatabase.getInstance(requireContext()).sportsDao().getAll()
+                .observe(getViewLifecycleOwner(), sports -> sportsList = sports);
         binding.anchorWorkout.setOnClickListener(v -> {
-            Intent intent = new Intent(getActivity(), LivePreviewActivity.class);
-            startActivity(intent);
+            //运动列表尚未加载时直接开始，由识别结果决定计数的运动
+            if (sportsList.isEmpty()) {
+                startWorkout(null);
+                return;
+            }
+            String[] names = new String[sportsList.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = sportsList.get(i).sports_name;
+            }
+            new MaterialAlertDialogBuilder(getContext())
+                    .setTitle("选择运动")
+                    .setItems(names, (dialogInterface, i) -> startWorkout(sportsList.get(i)))
+                    .setNegativeButton("取消", null)
+                    .show();
         });
 
 
         return binding.getRoot();
     }
 
+    private void startWorkout(Sports sports) {
+        Intent intent = new Intent(getActivity(), LivePreviewActivity.class);
+        if (sports != null) {
+            intent.putExtra(LivePreviewActivity.EXTRA_SPORTS_ID, sports.sports_id.longValue());
+        }
+        startActivity(intent);
+    }
+
     /**
      * Fragment 的存在时间比其视图长。
      * 请务必在 Fragment 的 onDestroyView() 方法中清除对绑定类实例的所有引用
@@ -39,4 +68,4 @@ public class WorkoutFragment extends Fragment {
         super.onDestroyView();
         binding = null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.benchmark;
+
+import com.durui.feat.computer_vision.classification_counter.ClassificationResult;
+import com.durui.feat.computer_vision.classification_counter.EMASmoothing;
+import com.durui.feat.computer_vision.classification_counter.PoseClassifier;
+import com.durui.feat.computer_vision.classification_counter.PoseEmbedding;
+import com.durui.feat.computer_vision.classification_counter.PoseSampleStore;
+import com.durui.feat.computer_vision.classification_counter.RepetitionCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the classification_counter hot paths, replaying the bundled samples as frames
+ * with {@link PoseFrames}. Every benchmark processes one frame per op, so ns/op is the per-frame
+ * latency and the gc profiler's {@code gc.alloc.rate.norm} the bytes allocated per frame.
+ *
+ * <p>{@code libraryCopies} grows the sample library with jittered copies and {@code shards} forces
+ * the number of shards {@link PoseClassifier} searches in parallel, 0 leaving it its own choice.
+ * Comparing shard counts at the same library size, on both sides of the size sharding starts at,
+ * is what that size is set from:
+ * {@code -p samplesFile=pose/squats_up_down.csv -p libraryCopies=2,5,9,18 -p shards=1,2,4 classify}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PoseClassificationBenchmark {
+    private static final long SEED = 42;
+
+    @Param({PoseFrames.SQUATS, PoseFrames.PUSHUPS})
+    public String samplesFile;
+
+    @Param({"1"})
+    public int libraryCopies;
+
+    @Param({"0"})
+    public int shards;
+
+    private PoseFrames frames;
+    private PoseClassifier classifier;
+    private ClassificationResult[] classifications;
+    private ClassificationResult[] smoothedClassifications;
+    private EMASmoothing emaSmoothing;
+    private RepetitionCounter repCounter;
+    private EMASmoothing frameSmoothing;
+    private RepetitionCounter frameRepCounter;
+    // Smoothed results are written into these, like PoseClassifierProcessor does.
+    private final ClassificationResult smoothed = new ClassificationResult();
+    private final ClassificationResult frameSmoothed = new ClassificationResult();
+    private final float[] embeddingWorkspace = new float[PoseEmbedding.LANDMARKS_LENGTH];
+    private final float[] embedding = new float[PoseSampleStore.EMBEDDING_LENGTH];
+    private int frame;
+    // Capture time of the frame nextFrame() returned last, frames come at 30 fps.
+    private long timestampNanos;
+
+    @Setup
+    public void setUp() throws IOException {
+        frames = PoseFrames.load(samplesFile, SEED);
+        PoseSampleStore sampleStore =
+                new PoseSampleStore(PoseFrames.loadSamples(samplesFile, libraryCopies, SEED));
+        classifier = shards > 0
+                ? new PoseClassifier(sampleStore, shards)
+                : new PoseClassifier(sampleStore);
+
+        // Smoothing and counting are fed what the stages before them produce for the same frames.
+        int numFrames = frames.poses.length;
+        classifications = new ClassificationResult[numFrames];
+        smoothedClassifications = new ClassificationResult[numFrames];
+        EMASmoothing smoothing = new EMASmoothing();
+        for (int i = 0; i < numFrames; i++) {
+            classifications[i] = classifier.classify(frames.poses[i]);
+            smoothedClassifications[i] = smoothing.getSmoothedResult(
+                    classifications[i], i * EMASmoothing.REFERENCE_FRAME_INTERVAL_NANOS);
+        }
+
+        // Count the "down" class, e.g. "squats_down", like the app does.
+        String countedClass = frames.classNames.get(0);
+        for (String className : frames.classNames) {
+            if (className.endsWith("_down")) {
+                countedClass = className;
+            }
+        }
+        emaSmoothing = new EMASmoothing();
+        repCounter = new RepetitionCounter(countedClass);
+        frameSmoothing = new EMASmoothing();
+        frameRepCounter = new RepetitionCounter(countedClass);
+    }
+
+    private int nextFrame() {
+        int next = frame;
+        frame = next + 1 == frames.poses.length ? 0 : next + 1;
+        timestampNanos += EMASmoothing.REFERENCE_FRAME_INTERVAL_NANOS;
+        return next;
+    }
+
+    @Benchmark
+    public float[] embedding() {
+        PoseEmbedding.getPoseEmbedding(
+                frames.landmarks[nextFrame()], embeddingWorkspace, embedding, 0);
+        return embedding;
+    }
+
+    @Benchmark
+    public ClassificationResult classify() {
+        return classifier.classify(frames.poses[nextFrame()]);
+    }
+
+    @Benchmark
+    public ClassificationResult smoothing() {
+        return emaSmoothing.getSmoothedResult(
+                classifications[nextFrame()], smoothed, timestampNanos);
+    }
+
+    @Benchmark
+    public int counting() {
+        return repCounter.addClassificationResult(smoothedClassifications[nextFrame()]);
+    }
+
+    /**
+     * Everything {@code PoseClassifierProcessor} does for one frame, minus formatting.
+     */
+    @Benchmark
+    public int frame() {
+        ClassificationResult classification = classifier.classify(frames.poses[nextFrame()]);
+        return frameRepCounter.addClassificationResult(
+                frameSmoothing.getSmoothedResult(classification, frameSmoothed, timestampNanos));
+    }
+}
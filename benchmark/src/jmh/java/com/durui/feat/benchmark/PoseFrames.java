@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.benchmark;
+
+import com.durui.feat.computer_vision.classification_counter.PoseEmbedding;
+import com.durui.feat.computer_vision.classification_counter.PoseSample;
+import com.google.mlkit.vision.common.PointF3D;
+import com.google.mlkit.vision.pose.Pose;
+import com.google.mlkit.vision.pose.PoseLandmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a bundled pose samples csv as a synthetic stream of camera frames.
+ *
+ * <p>Each csv row is {@code name,class,x0,y0,z0,...} with the 33 landmarks of one pose. Frames are
+ * those rows with a little pixel jitter, taken in runs of one class after the other (e.g. ten
+ * "down" frames, ten "up" frames, ...) so the stream looks like repetitions to the smoothing and
+ * the rep counter.
+ */
+final class PoseFrames {
+    static final String SQUATS = "pose/squats_up_down.csv";
+    static final String PUSHUPS = "pose/pushups_up_down.csv";
+
+    private static final int RUN_LENGTH = 10;
+    private static final float JITTER = 2f;
+
+    final List<String> classNames = new ArrayList<>();
+    final float[][] landmarks;
+    final Pose[] poses;
+
+    private PoseFrames(Map<String, List<float[]>> rowsByClass, long seed) {
+        classNames.addAll(rowsByClass.keySet());
+        int numFrames = 0;
+        for (List<float[]> rows : rowsByClass.values()) {
+            numFrames += rows.size();
+        }
+        landmarks = new float[numFrames][];
+        poses = new Pose[numFrames];
+
+        Random random = new Random(seed);
+        int[] nextRow = new int[classNames.size()];
+        for (int frame = 0; frame < numFrames; frame++) {
+            int classIndex = frame / RUN_LENGTH % classNames.size();
+            List<float[]> rows = rowsByClass.get(classNames.get(classIndex));
+            float[] row = rows.get(nextRow[classIndex]++ % rows.size());
+            float[] frameLandmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+            for (int i = 0; i < frameLandmarks.length; i++) {
+                frameLandmarks[i] = row[i] + (float) random.nextGaussian() * JITTER;
+            }
+            landmarks[frame] = frameLandmarks;
+            poses[frame] = toPose(frameLandmarks);
+        }
+    }
+
+    static PoseFrames load(String samplesFile, long seed) throws IOException {
+        Map<String, List<float[]>> rowsByClass = new LinkedHashMap<>();
+        for (String line : readLines(samplesFile)) {
+            String[] tokens = line.split(",");
+            if (tokens.length != 2 + PoseEmbedding.LANDMARKS_LENGTH) {
+                continue;
+            }
+            float[] row = new float[PoseEmbedding.LANDMARKS_LENGTH];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = Float.parseFloat(tokens[2 + i]);
+            }
+            List<float[]> rows = rowsByClass.get(tokens[1]);
+            if (rows == null) {
+                rows = new ArrayList<>();
+                rowsByClass.put(tokens[1], rows);
+            }
+            rows.add(row);
+        }
+        return new PoseFrames(rowsByClass, seed);
+    }
+
+    /**
+     * Loads the samples of {@code samplesFile}, plus {@code copies - 1} jittered copies of each to
+     * emulate a larger library.
+     */
+    static List<PoseSample> loadSamples(String samplesFile, int copies, long seed)
+            throws IOException {
+        List<String> lines = readLines(samplesFile);
+        List<PoseSample> poseSamples = new ArrayList<>();
+        Random random = new Random(seed);
+        for (int copy = 0; copy < copies; copy++) {
+            for (String line : lines) {
+                PoseSample poseSample = PoseSample.getPoseSample(
+                        copy == 0 ? line : jitter(line, random), ",");
+                if (poseSample != null) {
+                    poseSamples.add(poseSample);
+                }
+            }
+        }
+        return poseSamples;
+    }
+
+    private static String jitter(String line, Random random) {
+        String[] tokens = line.split(",");
+        if (tokens.length != 2 + PoseEmbedding.LANDMARKS_LENGTH) {
+            return line;
+        }
+        StringBuilder jittered = new StringBuilder(line.length()).append(tokens[0]).append(',')
+                .append(tokens[1]);
+        for (int i = 2; i < tokens.length; i++) {
+            jittered.append(',')
+                    .append(Float.parseFloat(tokens[i]) + (float) random.nextGaussian() * 15f);
+        }
+        return jittered.toString();
+    }
+
+    private static Pose toPose(float[] landmarks) {
+        List<PoseLandmark> poseLandmarks = new ArrayList<>(PoseEmbedding.NUM_LANDMARKS);
+        for (int i = 0; i < PoseEmbedding.NUM_LANDMARKS; i++) {
+            poseLandmarks.add(new PoseLandmark(
+                    i, PointF3D.from(landmarks[i * 3], landmarks[i * 3 + 1], landmarks[i * 3 + 2]), 1f));
+        }
+        return new Pose(poseLandmarks);
+    }
+
+    private static List<String> readLines(String resource) throws IOException {
+        InputStream inputStream = PoseFrames.class.getClassLoader().getResourceAsStream(resource);
+        if (inputStream == null) {
+            throw new IOException("Missing pose samples " + resource);
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}
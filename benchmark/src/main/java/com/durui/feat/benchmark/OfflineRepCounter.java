@@ -0,0 +1,250 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.benchmark;
+
+import com.durui.feat.computer_vision.classification_counter.LandmarkSessionReader;
+import com.durui.feat.computer_vision.classification_counter.LandmarkSessionRecorder;
+import com.durui.feat.computer_vision.classification_counter.PoseClassifier;
+import com.durui.feat.computer_vision.classification_counter.PoseEmbedding;
+import com.durui.feat.computer_vision.classification_counter.PoseSample;
+import com.durui.feat.computer_vision.classification_counter.RepCountingEngine;
+import com.durui.feat.computer_vision.classification_counter.RepetitionCounter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifies and counts recorded landmark sessions offline, as fast as the CPU allows, with the
+ * same {@link RepCountingEngine} the app runs live:
+ *
+ * <pre>
+ *   ./gradlew :benchmark:countReps --args="[--threads N] [--rep-class CLASS]... SAMPLES_CSV SESSION..."
+ * </pre>
+ *
+ * <p>{@code SAMPLES_CSV} is a pose samples file like the ones in the app assets. A {@code SESSION}
+ * is a file, or a directory of such files: either a {@code .lmk} log recorded by the app with
+ * {@link LandmarkSessionRecorder}, or a {@code .csv} with one frame per line:
+ * {@code timestamp_nanos,x0,y0,z0,...,x32,y32,z32}, a line with only the timestamp being a frame
+ * where no pose was found. Sessions are counted in parallel, one engine each, sharing the
+ * classifier. Counted classes default to the "_down" classes of the samples, as in the app.
+ *
+ * <p>Every rep is printed as {@code session,class,reps,timestamp_nanos}, the reps of a session
+ * together once it is done, followed by a {@code session,total,reps,frames} line summing the reps
+ * of every counted class. Timing goes to stderr. Exits with 1 if a session could not be read.
+ */
+public final class OfflineRepCounter {
+    private static final String CSV_SUFFIX = ".csv";
+
+    private final PoseClassifier classifier;
+    private final String[] repClassNames;
+    private final PrintStream out;
+
+    public OfflineRepCounter(PoseClassifier classifier, String[] repClassNames, PrintStream out) {
+        this.classifier = classifier;
+        this.repClassNames = repClassNames;
+        this.out = out;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> repClassNames = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--rep-class") && i + 1 < args.length) {
+                repClassNames.add(args[++i]);
+            } else {
+                paths.add(args[i]);
+            }
+        }
+        if (paths.size() < 2 || threads < 1) {
+            System.err.println("Usage: OfflineRepCounter [--threads N] [--rep-class CLASS]..."
+                    + " SAMPLES_CSV SESSION...");
+            System.exit(2);
+        }
+
+        PoseClassifier classifier = new PoseClassifier(loadSamples(new File(paths.get(0))));
+        if (repClassNames.isEmpty()) {
+            repClassNames.addAll(Arrays.asList(RepCountingEngine.getRepClassNames(
+                    classifier.getSampleStore().getClassDictionary())));
+        }
+        List<File> sessions = new ArrayList<>();
+        for (String path : paths.subList(1, paths.size())) {
+            addSessions(new File(path), sessions);
+        }
+
+        OfflineRepCounter counter = new OfflineRepCounter(
+                classifier, repClassNames.toArray(new String[0]), System.out);
+        boolean allRead = counter.countAll(sessions, threads);
+        System.out.flush();
+        System.exit(allRead ? 0 : 1);
+    }
+
+    /**
+     * Counts {@code sessions} on {@code threads} threads and returns whether all could be read.
+     */
+    public boolean countAll(List<File> sessions, int threads) throws InterruptedException {
+        long startNanos = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> frameCounts = new ArrayList<>(sessions.size());
+        for (File session : sessions) {
+            frameCounts.add(executor.submit(() -> count(session)));
+        }
+        executor.shutdown();
+
+        long frames = 0;
+        boolean allRead = true;
+        for (int i = 0; i < sessions.size(); i++) {
+            try {
+                frames += frameCounts.get(i).get();
+            } catch (ExecutionException e) {
+                allRead = false;
+                System.err.println("Failed to count " + sessions.get(i) + ": " + e.getCause());
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        System.err.printf("Counted %d sessions, %d frames in %d ms on %d threads, %.0f frames/s%n",
+                sessions.size(), frames, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), threads,
+                frames * 1e9 / Math.max(1, elapsedNanos));
+        return allRead;
+    }
+
+    /**
+     * Counts one session, prints its reps and returns the number of frames in it.
+     */
+    public int count(File session) throws IOException {
+        String name = session.getPath();
+        StringBuilder reps = new StringBuilder();
+        RepCountingEngine engine = new RepCountingEngine(repClassNames);
+        engine.setRepListener((className, repCount, timestampNanos) ->
+                reps.append(name).append(',').append(className).append(',').append(repCount)
+                        .append(',').append(timestampNanos).append('\n'));
+
+        int frames = name.endsWith(LandmarkSessionRecorder.FILE_SUFFIX)
+                ? replay(session, engine)
+                : countCsv(session, engine);
+
+        int totalReps = 0;
+        for (RepetitionCounter repCounter : engine.getRepCounters()) {
+            totalReps += repCounter.getNumRepeats();
+        }
+        reps.append(name).append(",total,").append(totalReps).append(',')
+                .append(frames).append('\n');
+        synchronized (out) {
+            out.print(reps);
+        }
+        return frames;
+    }
+
+    private int replay(File session, RepCountingEngine engine) throws IOException {
+        int frames = 0;
+        try (LandmarkSessionReader reader = new LandmarkSessionReader(session)) {
+            while (reader.next()) {
+                engine.process(
+                        classifier,
+                        reader.hasPose() ? reader.getLandmarks() : null,
+                        reader.getTimestampNanos());
+                frames++;
+            }
+        }
+        return frames;
+    }
+
+    private int countCsv(File session, RepCountingEngine engine) throws IOException {
+        float[] landmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+        int frames = 0;
+        try (BufferedReader reader = Files.newBufferedReader(session.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                long timestampNanos = parseFrame(line, landmarks);
+                boolean hasPose = line.indexOf(',') >= 0;
+                engine.process(classifier, hasPose ? landmarks : null, timestampNanos);
+                frames++;
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad frame in " + session + ": " + e.getMessage(), e);
+        }
+        return frames;
+    }
+
+    // Parses the landmarks of a frame line into landmarks, if any, and returns its timestamp.
+    private static long parseFrame(String line, float[] landmarks) {
+        int end = line.indexOf(',');
+        if (end < 0) {
+            return Long.parseLong(line.trim());
+        }
+        long timestampNanos = Long.parseLong(line.substring(0, end).trim());
+        for (int i = 0; i < landmarks.length; i++) {
+            int start = end + 1;
+            end = line.indexOf(',', start);
+            if (end < 0) {
+                if (i != landmarks.length - 1) {
+                    throw new NumberFormatException("expected " + landmarks.length + " landmark values");
+                }
+                end = line.length();
+            }
+            landmarks[i] = Float.parseFloat(line.substring(start, end));
+        }
+        if (end != line.length()) {
+            throw new NumberFormatException("expected " + landmarks.length + " landmark values");
+        }
+        return timestampNanos;
+    }
+
+    private static List<PoseSample> loadSamples(File samplesFile) throws IOException {
+        List<PoseSample> poseSamples = new ArrayList<>();
+        for (String line : Files.readAllLines(samplesFile.toPath(), StandardCharsets.UTF_8)) {
+            PoseSample poseSample = PoseSample.getPoseSample(line, ",");
+            if (poseSample != null) {
+                poseSamples.add(poseSample);
+            }
+        }
+        if (poseSamples.isEmpty()) {
+            throw new IOException("No pose samples in " + samplesFile);
+        }
+        return poseSamples;
+    }
+
+    private static void addSessions(File path, List<File> sessions) {
+        if (!path.isDirectory()) {
+            sessions.add(path);
+            return;
+        }
+        File[] files = path.listFiles((dir, name) ->
+                name.endsWith(CSV_SUFFIX) || name.endsWith(LandmarkSessionRecorder.FILE_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            sessions.addAll(Arrays.asList(files));
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.benchmark;
+
+import com.durui.feat.computer_vision.classification_counter.PoseSample;
+import com.durui.feat.computer_vision.classification_counter.PoseSamplePack;
+import com.durui.feat.computer_vision.classification_counter.PoseSampleStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates the {@link PoseSamplePack} the app loads for each pose samples csv, written next to it:
+ *
+ * <pre>
+ *   ./gradlew :benchmark:posePacks
+ * </pre>
+ *
+ * <p>Arguments are csv files or directories of them, the task passes the app's pose assets. Packs
+ * only depend on the csv and the embedding, so regenerating an up to date pack leaves it unchanged.
+ */
+public final class PoseSamplePackWriter {
+    private static final String CSV_SUFFIX = ".csv";
+
+    private PoseSamplePackWriter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: PoseSamplePackWriter SAMPLES_CSV...");
+            System.exit(2);
+        }
+        for (String path : args) {
+            for (File csvFile : listCsvFiles(new File(path))) {
+                File packFile = packFileFor(csvFile);
+                Files.write(packFile.toPath(), generate(csvFile));
+                System.out.println(csvFile + " -> " + packFile);
+            }
+        }
+    }
+
+    /**
+     * Returns the pack generated from the pose samples in {@code csvFile}.
+     */
+    public static byte[] generate(File csvFile) throws IOException {
+        List<PoseSample> poseSamples = new ArrayList<>();
+        for (String line : Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8)) {
+            PoseSample poseSample = PoseSample.getPoseSample(line, ",");
+            if (poseSample != null) {
+                poseSamples.add(poseSample);
+            }
+        }
+        if (poseSamples.isEmpty()) {
+            throw new IOException("No pose samples in " + csvFile);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PoseSamplePack.write(new PoseSampleStore(poseSamples), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns the pack the app loads for {@code csvFile}.
+     */
+    public static File packFileFor(File csvFile) {
+        return new File(csvFile.getParentFile(), PoseSamplePack.packPathFor(csvFile.getName()));
+    }
+
+    /**
+     * Returns {@code path} if it is a file, otherwise the csv files in it, sorted.
+     */
+    public static List<File> listCsvFiles(File path) {
+        if (!path.isDirectory()) {
+            return Arrays.asList(path);
+        }
+        File[] files = path.listFiles((dir, name) -> name.endsWith(CSV_SUFFIX));
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files);
+        return Arrays.asList(files);
+    }
+}
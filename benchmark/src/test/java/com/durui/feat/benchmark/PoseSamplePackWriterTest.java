@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.benchmark;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.durui.feat.computer_vision.classification_counter.PoseSamplePack;
+import com.durui.feat.computer_vision.classification_counter.PoseSampleStore;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that every pose sample pack the app ships is the one {@link PoseSamplePackWriter} generates
+ * from its csv today, since the app only loads the packs.
+ */
+public class PoseSamplePackWriterTest {
+    @Test
+    public void bundledPacks_matchTheirCsv() throws IOException {
+        List<File> csvFiles = PoseSamplePackWriter.listCsvFiles(getPoseSamplesDir());
+        assertTrue("No pose samples csv files", !csvFiles.isEmpty());
+        for (File csvFile : csvFiles) {
+            File packFile = PoseSamplePackWriter.packFileFor(csvFile);
+            assertTrue("Missing " + packFile + ", run ./gradlew :benchmark:posePacks",
+                    packFile.isFile());
+            assertTrue("Stale " + packFile + ", run ./gradlew :benchmark:posePacks",
+                    Arrays.equals(PoseSamplePackWriter.generate(csvFile),
+                            Files.readAllBytes(packFile.toPath())));
+        }
+    }
+
+    @Test
+    public void bundledPacks_readBack() throws IOException {
+        for (File csvFile : PoseSamplePackWriter.listCsvFiles(getPoseSamplesDir())) {
+            PoseSampleStore store = PoseSamplePack.read(ByteBuffer.wrap(
+                    Files.readAllBytes(PoseSamplePackWriter.packFileFor(csvFile).toPath())));
+            assertTrue(csvFile + " has no samples", store.size() > 0);
+            for (int sample = 0; sample < store.size(); sample++) {
+                int classId = store.getClassId(sample);
+                assertTrue(csvFile + " sample " + sample,
+                        classId >= 0 && classId < store.getNumClasses());
+            }
+        }
+    }
+
+    @Test
+    public void bundledPacks_classNamesMatchTheirStore() throws IOException {
+        for (File csvFile : PoseSamplePackWriter.listCsvFiles(getPoseSamplesDir())) {
+            File packFile = PoseSamplePackWriter.packFileFor(csvFile);
+            PoseSampleStore store =
+                    PoseSamplePack.read(ByteBuffer.wrap(Files.readAllBytes(packFile.toPath())));
+            String[] storeClassNames = new String[store.getNumClasses()];
+            for (int c = 0; c < storeClassNames.length; c++) {
+                storeClassNames[c] = store.getClassName(c);
+            }
+            try (InputStream in = new FileInputStream(packFile)) {
+                assertArrayEquals(packFile.toString(), storeClassNames,
+                        PoseSamplePack.readClassNames(in));
+            }
+        }
+    }
+
+    private static File getPoseSamplesDir() {
+        String poseSamplesDir = System.getProperty("poseSamplesDir");
+        assertNotNull("poseSamplesDir is set by the test task", poseSamplesDir);
+        return new File(poseSamplesDir);
+    }
+}
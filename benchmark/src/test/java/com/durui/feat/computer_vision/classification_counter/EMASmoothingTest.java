@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that {@link EMASmoothing} matches the window it replaced, which summed every result of the
+ * window again on each frame, on classification streams at the reference frame rate.
+ *
+ * <p>The old window accumulated its weights in float and the new one keeps running sums in double,
+ * so smoothed confidences, counts of up to {@link #TOP_K} nearest samples, may differ by float
+ * rounding only: {@link #TOLERANCE} at most. Both must report the same classes.
+ */
+public class EMASmoothingTest {
+    private static final String[] CLASS_NAMES = {
+            "pushups_down", "pushups_up", "squats_down", "squats_up"
+    };
+    private static final int TOP_K = 10;
+    private static final float TOLERANCE = 5e-6f;
+    private static final int FRAMES = 20_000;
+    private static final long SEED = 7;
+
+    @Test
+    public void steadyStream_matchesWholeWindowSum() {
+        assertMatchesBaseline(/* gapEvery= */ 0, /* emptyChance= */ 0);
+    }
+
+    @Test
+    public void streamWithEmptyResults_matchesWholeWindowSum() {
+        assertMatchesBaseline(/* gapEvery= */ 0, /* emptyChance= */ 0.2f);
+    }
+
+    @Test
+    public void streamWithCaptureGaps_matchesWholeWindowSum() {
+        // Gaps longer than the reset threshold of both windows.
+        assertMatchesBaseline(/* gapEvery= */ 37, /* emptyChance= */ 0.1f);
+    }
+
+    private static void assertMatchesBaseline(int gapEvery, float emptyChance) {
+        ClassDictionary classes = new ClassDictionary(CLASS_NAMES);
+        Random random = new Random(SEED);
+        EMASmoothing smoothing = new EMASmoothing();
+        BaselineSmoothing baseline = new BaselineSmoothing();
+        ClassificationResult smoothed = new ClassificationResult();
+        long timestampNanos = 0;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            timestampNanos += gapEvery > 0 && frame % gapEvery == gapEvery - 1
+                    ? 1_000_000_000L
+                    : EMASmoothing.REFERENCE_FRAME_INTERVAL_NANOS;
+            ClassificationResult result = random.nextFloat() < emptyChance
+                    ? new ClassificationResult()
+                    : randomResult(classes, random);
+            Map<String, Float> expected = baseline.getSmoothedResult(result, timestampNanos);
+            smoothing.getSmoothedResult(result, smoothed, timestampNanos);
+
+            String message = "frame " + frame;
+            assertEquals(message, expected.keySet(), smoothed.getAllClasses());
+            for (Map.Entry<String, Float> entry : expected.entrySet()) {
+                assertEquals(message + " " + entry.getKey(), entry.getValue(),
+                        smoothed.getClassConfidence(entry.getKey()), TOLERANCE);
+            }
+        }
+    }
+
+    // Top-K votes spread over a few classes, like PoseClassifier results.
+    private static ClassificationResult randomResult(ClassDictionary classes, Random random) {
+        ClassificationResult result = new ClassificationResult(classes);
+        int numClasses = 1 + random.nextInt(2);
+        int firstClass = random.nextInt(classes.size());
+        for (int vote = 0; vote < TOP_K; vote++) {
+            result.incrementClassConfidence((firstClass + random.nextInt(numClasses)) % classes.size());
+        }
+        return result;
+    }
+
+    /**
+     * The smoothing EMASmoothing replaced, going by capture timestamps instead of the clock.
+     */
+    private static class BaselineSmoothing {
+        private static final int WINDOW_SIZE = 10;
+        private static final float ALPHA = 0.2f;
+        private static final long RESET_THRESHOLD_NANOS = 100_000_000L;
+
+        private final Deque<Map<String, Float>> window = new ArrayDeque<>(WINDOW_SIZE);
+        private long lastInputNanos;
+
+        Map<String, Float> getSmoothedResult(ClassificationResult result, long timestampNanos) {
+            if (timestampNanos - lastInputNanos > RESET_THRESHOLD_NANOS) {
+                window.clear();
+            }
+            lastInputNanos = timestampNanos;
+
+            if (window.size() == WINDOW_SIZE) {
+                window.pollLast();
+            }
+            Map<String, Float> confidences = new HashMap<>();
+            for (String className : result.getAllClasses()) {
+                confidences.put(className, result.getClassConfidence(className));
+            }
+            window.addFirst(confidences);
+
+            Set<String> allClasses = new HashSet<>();
+            for (Map<String, Float> windowResult : window) {
+                allClasses.addAll(windowResult.keySet());
+            }
+
+            Map<String, Float> smoothedResult = new HashMap<>();
+            for (String className : allClasses) {
+                float factor = 1;
+                float topSum = 0;
+                float bottomSum = 0;
+                for (Map<String, Float> windowResult : window) {
+                    Float value = windowResult.get(className);
+
+                    topSum += factor * (value != null ? value : 0);
+                    bottomSum += factor;
+
+                    factor = (float) (factor * (1.0 - ALPHA));
+                }
+                smoothedResult.put(className, topSum / bottomSum);
+            }
+            return smoothedResult;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020 Google LLC. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.durui.feat.computer_vision.classification_counter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks that {@link VantagePointTree} finds the same max-distance top-K as a linear scan over the
+ * bundled pose samples.
+ *
+ * <p>When several samples tie at the K-th distance, either may be retained, so the two searches
+ * must agree on the sorted top-K distances and on every sample strictly closer than the K-th.
+ */
+public class VantagePointTreeTest {
+    private static final String[] SAMPLES_FILES = {
+            "pose/squats_up_down.csv", "pose/pushups_up_down.csv"
+    };
+    private static final int TOP_K = 30;
+    private static final float WEIGHT_X = 1;
+    private static final float WEIGHT_Y = 1;
+    private static final float WEIGHT_Z = 0.2f;
+    private static final int QUERIES_PER_KIND = 50;
+    private static final long SEED = 7;
+
+    @Test
+    public void randomQueries_matchLinearScan() throws IOException {
+        for (String samplesFile : SAMPLES_FILES) {
+            Random random = new Random(SEED);
+            List<float[]> queries = new ArrayList<>();
+            for (int i = 0; i < QUERIES_PER_KIND; i++) {
+                float[] landmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+                for (int j = 0; j < landmarks.length; j++) {
+                    landmarks[j] = random.nextFloat() * 1000;
+                }
+                queries.add(landmarks);
+            }
+            assertMatchesLinearScan(samplesFile, loadStore(samplesFile, 1), queries);
+        }
+    }
+
+    @Test
+    public void jitteredQueries_matchLinearScan() throws IOException {
+        for (String samplesFile : SAMPLES_FILES) {
+            assertMatchesLinearScan(
+                    samplesFile, loadStore(samplesFile, 1), jitteredSamples(samplesFile, false));
+        }
+    }
+
+    @Test
+    public void mirroredQueries_matchLinearScan() throws IOException {
+        for (String samplesFile : SAMPLES_FILES) {
+            assertMatchesLinearScan(
+                    samplesFile, loadStore(samplesFile, 1), jitteredSamples(samplesFile, true));
+        }
+    }
+
+    @Test
+    public void exactQueriesWithTies_matchLinearScan() throws IOException {
+        for (String samplesFile : SAMPLES_FILES) {
+            // Every sample is stored twice, and the queries are samples themselves, so there are
+            // ties at distance 0 and at every other distance too.
+            List<float[]> queries = loadLandmarks(samplesFile);
+            assertMatchesLinearScan(
+                    samplesFile, loadStore(samplesFile, 2), queries.subList(0, QUERIES_PER_KIND));
+        }
+    }
+
+    @Test
+    public void shardedTrees_matchLinearScan() throws IOException {
+        for (String samplesFile : SAMPLES_FILES) {
+            PoseSampleStore store = loadStore(samplesFile, 2);
+            int numShards = 3;
+            VantagePointTree[] shards = new VantagePointTree[numShards];
+            for (int i = 0; i < numShards; i++) {
+                int[] shard = new int[(store.size() - i + numShards - 1) / numShards];
+                for (int j = 0; j < shard.length; j++) {
+                    shard[j] = i + j * numShards;
+                }
+                shards[i] = new VantagePointTree(store, shard, WEIGHT_X, WEIGHT_Y, WEIGHT_Z);
+            }
+            for (float[] landmarks : jitteredSamples(samplesFile, false)) {
+                float[] query = embed(landmarks);
+                NearestSamples merged = new NearestSamples(TOP_K);
+                for (VantagePointTree tree : shards) {
+                    NearestSamples shardTopK = new NearestSamples(TOP_K);
+                    tree.searchMaxDistanceTopK(query, flip(query), shardTopK);
+                    for (int i = 0; i < shardTopK.size(); i++) {
+                        merged.offer(shardTopK.getSample(i), shardTopK.getDistance(i));
+                    }
+                }
+                assertSameTopK(samplesFile, store, query, merged);
+            }
+        }
+    }
+
+    private static void assertMatchesLinearScan(
+            String samplesFile, PoseSampleStore store, List<float[]> queries) {
+        VantagePointTree tree = new VantagePointTree(store, WEIGHT_X, WEIGHT_Y, WEIGHT_Z);
+        NearestSamples topK = new NearestSamples(TOP_K);
+        for (float[] landmarks : queries) {
+            float[] query = embed(landmarks);
+            topK.clear();
+            tree.searchMaxDistanceTopK(query, flip(query), topK);
+            assertSameTopK(samplesFile, store, query, topK);
+        }
+    }
+
+    private static void assertSameTopK(
+            String samplesFile, PoseSampleStore store, float[] query, NearestSamples topK) {
+        int size = store.size();
+        float[] scanned = new float[size];
+        for (int sample = 0; sample < size; sample++) {
+            scanned[sample] = store.maxDistance(
+                    sample, query, WEIGHT_X, WEIGHT_Y, WEIGHT_Z, Float.POSITIVE_INFINITY);
+        }
+        float[] expected = scanned.clone();
+        Arrays.sort(expected);
+        expected = Arrays.copyOf(expected, Math.min(TOP_K, size));
+
+        float[] actual = new float[topK.size()];
+        Set<Integer> retained = new HashSet<>();
+        for (int i = 0; i < topK.size(); i++) {
+            actual[i] = topK.getDistance(i);
+            retained.add(topK.getSample(i));
+            assertEquals(samplesFile, scanned[topK.getSample(i)], topK.getDistance(i), 0f);
+        }
+        Arrays.sort(actual);
+        assertArrayEquals(samplesFile, expected, actual, 0f);
+
+        float kthDistance = expected[expected.length - 1];
+        for (int sample = 0; sample < size; sample++) {
+            if (scanned[sample] < kthDistance) {
+                assertTrue(samplesFile + " sample " + sample, retained.contains(sample));
+            }
+        }
+    }
+
+    private static float[] embed(float[] landmarks) {
+        float[] embedding = new float[PoseSampleStore.EMBEDDING_LENGTH];
+        PoseEmbedding.getPoseEmbedding(
+                landmarks, new float[PoseEmbedding.LANDMARKS_LENGTH], embedding, 0);
+        return embedding;
+    }
+
+    private static float[] flip(float[] query) {
+        float[] flipped = query.clone();
+        for (int i = 0; i < flipped.length; i += PoseSampleStore.NUM_DIMS) {
+            flipped[i] = -flipped[i];
+        }
+        return flipped;
+    }
+
+    // The first samples of the file with a little pixel jitter, mirrored on X if asked.
+    private static List<float[]> jitteredSamples(String samplesFile, boolean mirrored)
+            throws IOException {
+        Random random = new Random(SEED);
+        List<float[]> queries = new ArrayList<>();
+        for (float[] landmarks : loadLandmarks(samplesFile).subList(0, QUERIES_PER_KIND)) {
+            float[] query = new float[landmarks.length];
+            for (int i = 0; i < query.length; i++) {
+                float value = landmarks[i] + (float) random.nextGaussian() * 5;
+                query[i] = mirrored && i % PoseSampleStore.NUM_DIMS == 0 ? -value : value;
+            }
+            queries.add(query);
+        }
+        return queries;
+    }
+
+    private static PoseSampleStore loadStore(String samplesFile, int copies) throws IOException {
+        List<PoseSample> poseSamples = new ArrayList<>();
+        for (int copy = 0; copy < copies; copy++) {
+            for (String line : readLines(samplesFile)) {
+                PoseSample poseSample = PoseSample.getPoseSample(line, ",");
+                if (poseSample != null) {
+                    poseSamples.add(poseSample);
+                }
+            }
+        }
+        return new PoseSampleStore(poseSamples);
+    }
+
+    private static List<float[]> loadLandmarks(String samplesFile) throws IOException {
+        List<float[]> samples = new ArrayList<>();
+        for (String line : readLines(samplesFile)) {
+            String[] tokens = line.split(",");
+            if (tokens.length != 2 + PoseEmbedding.LANDMARKS_LENGTH) {
+                continue;
+            }
+            float[] landmarks = new float[PoseEmbedding.LANDMARKS_LENGTH];
+            for (int i = 0; i < landmarks.length; i++) {
+                landmarks[i] = Float.parseFloat(tokens[2 + i]);
+            }
+            samples.add(landmarks);
+        }
+        return samples;
+    }
+
+    private static List<String> readLines(String resource) throws IOException {
+        InputStream inputStream =
+                VantagePointTreeTest.class.getClassLoader().getResourceAsStream(resource);
+        assertNotNull("Missing pose samples " + resource, inputStream);
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+}